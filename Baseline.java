@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Repositories written by the first version of gitlet, before trees
+ *  and the index. Those stored each commit by Java serialization with a
+ *  map from file names to blob ids, each blob as a serialized object
+ *  holding its file name and its contents as a string, and staged files
+ *  in .gitlet/staging. Their classes no longer match Commits and Blob,
+ *  so they are read into copies of the first versions instead.
+ *  <p>
+ *  A blob keeps its id on conversion: it was the SHA-1 of the UTF-8
+ *  form of its contents, which is what is stored now. Commits get new
+ *  ids, since they now name a tree.
+ *  @author Cassandra Calciano
+ */
+class Baseline {
+
+    /** Staging area of a first-version repository, whose presence marks
+     *  one. */
+    static final File STAGING = Utils.join(Main.GIT, "staging");
+
+    /** First byte of a Java serialization stream. */
+    private static final byte SERIALIZED = (byte) 0xac;
+
+    /** Returns true if the repository was written by the first version
+     *  of gitlet and not yet converted. */
+    static boolean present() {
+        return STAGING.isDirectory();
+    }
+
+    /** Converts a first-version repository: rewrites its blobs in place,
+     *  stores a commit with a tree for each of its commits, moves the
+     *  branches to them, and then deletes the old commits and the old
+     *  staging area. Does nothing if the repository is not one.
+     * @return the number of commits converted, or -1 if files were
+     *  staged, which must be committed by the old version first */
+    static int convert() {
+        if (!present()) {
+            return 0;
+        }
+        if (staged(Utils.join(STAGING, "add"))
+                || staged(Utils.join(STAGING, "delete"))) {
+            System.out.println("You have uncommitted changes.");
+            return -1;
+        }
+        Main.TREES.mkdir();
+        for (String id : Utils.plainFilenamesIn(Main.BLOBS)) {
+            File file = Utils.join(Main.BLOBS, id);
+            byte[] bytes = Utils.readContents(file);
+            if (bytes.length > 0 && bytes[0] == SERIALIZED) {
+                OldBlob blob = read(bytes, OldBlob.class);
+                Main.writeRef(file,
+                        blob._contents.getBytes(StandardCharsets.UTF_8));
+                Journal.wrote(file);
+            }
+        }
+        HashMap<String, OldCommit> old = new HashMap<>();
+        for (String id : Utils.plainFilenamesIn(Main.COMMITS)) {
+            byte[] bytes = Utils.readContents(Utils.join(Main.COMMITS, id));
+            if (bytes.length > 0 && bytes[0] == SERIALIZED) {
+                old.put(id, read(bytes, OldCommit.class));
+            }
+        }
+        HashMap<String, String> renamed = new HashMap<>();
+        for (String id : old.keySet()) {
+            convert(id, old, renamed);
+        }
+        for (String branch : Utils.plainFilenamesIn(Main.BRANCHES)) {
+            File ref = Utils.join(Main.BRANCHES, branch);
+            String id = Utils.readContentsAsString(ref);
+            if (renamed.containsKey(id)) {
+                Journal.update(ref, id, renamed.get(id));
+            }
+        }
+        Journal.commit();
+        for (String id : old.keySet()) {
+            if (!renamed.get(id).equals(id)) {
+                Utils.join(Main.COMMITS, id).delete();
+            }
+        }
+        for (File file : STAGING.listFiles()) {
+            file.delete();
+        }
+        STAGING.delete();
+        return old.size();
+    }
+
+    /** Returns true if FILE, a staging file of the first version, holds
+     *  staged changes. */
+    private static boolean staged(File file) {
+        if (!file.isFile() || file.length() == 0) {
+            return false;
+        }
+        Object staged = read(Utils.readContents(file), Object.class);
+        return staged instanceof Map && !((Map<?, ?>) staged).isEmpty()
+                || staged instanceof Collection
+                    && !((Collection<?>) staged).isEmpty();
+    }
+
+    /** Stores the converted form of the commit named ID among OLD, after
+     *  its ancestors, noting the new id of each in RENAMED. */
+    private static void convert(String id, Map<String, OldCommit> old,
+                                Map<String, String> renamed) {
+        ArrayList<String> chain = new ArrayList<>();
+        for (String at = id; at != null && old.containsKey(at)
+                 && !renamed.containsKey(at); at = old.get(at)._parentSha) {
+            chain.add(at);
+        }
+        for (int i = chain.size() - 1; i >= 0; i -= 1) {
+            OldCommit commit = old.get(chain.get(i));
+            TreeMap<String, String> files = new TreeMap<>();
+            if (commit._files != null) {
+                files.putAll(commit._files);
+            }
+            String tree = Tree.update(new Tree().save(), files);
+            String parent = commit._parentSha;
+            Commits converted = new Commits(commit._message, tree,
+                    parent == null ? null
+                            : renamed.getOrDefault(parent, parent),
+                    null, commit._commitDate);
+            converted.save();
+            renamed.put(chain.get(i), converted.getCommitID());
+        }
+    }
+
+    /** Returns the object of class TYPE serialized in BYTES, reading the
+     *  first versions of Commits and Blob as OldCommit and OldBlob. */
+    private static <T> T read(byte[] bytes, Class<T> type) {
+        try (ObjectInputStream in =
+                 new Input(new ByteArrayInputStream(bytes))) {
+            return type.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A stream that reads the first versions of Commits and Blob into
+     *  OldCommit and OldBlob, whose fields are the same. */
+    private static class Input extends ObjectInputStream {
+
+        /** A stream reading IN. */
+        Input(ByteArrayInputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Commits.class.getName())) {
+                return ObjectStreamClass.lookup(OldCommit.class);
+            } else if (desc.getName().equals(Blob.class.getName())) {
+                return ObjectStreamClass.lookup(OldBlob.class);
+            }
+            return desc;
+        }
+    }
+
+    /** A commit as the first version serialized it. */
+    private static class OldCommit implements Serializable {
+
+        /** Fixes the stream format of this class. */
+        private static final long serialVersionUID = 1L;
+
+        /** Blob ids of the files of the commit, by name. */
+        private HashMap<String, String> _files;
+
+        /** Commit message. */
+        private String _message;
+
+        /** Id the first version gave the commit. */
+        private String _commitID;
+
+        /** Time the commit was made. */
+        private Date _commitDate;
+
+        /** Id of the parent, or null for the initial commit. */
+        private String _parentSha;
+    }
+
+    /** A blob as the first version serialized it. */
+    private static class OldBlob implements Serializable {
+
+        /** Fixes the stream format of this class. */
+        private static final long serialVersionUID = 1L;
+
+        /** Name of the file the blob was read from. */
+        private String _fileName;
+
+        /** Contents of the blob. */
+        private String _contents;
+    }
+}
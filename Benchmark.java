@@ -0,0 +1,455 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/** Wall-clock benchmarks for Gitlet commands. Each benchmark but
+ *  compression builds its own repository, so it must be run in an empty
+ *  directory:
+ *      java gitlet.Benchmark checkout [FILES] [SIZE] [ROUNDS]
+ *      java gitlet.Benchmark merge [COMMITS] [DISTANCE] [ROUNDS]
+ *      java gitlet.Benchmark codec [COMMITS] [ROUNDS]
+ *      java gitlet.Benchmark commands [FILES] [SIZE] [DEPTH] [BRANCHES]
+ *          [ROUNDS]
+ *      java gitlet.Benchmark compression [DIR] [ROUNDS]
+ *  The commands benchmark prints a JSON report with one line per
+ *  command, meant to be saved and diffed between versions; compression
+ *  prints one line per setting, for the files under DIR; the others
+ *  print one line each.
+ *  @author Cassandra Calciano
+ */
+public class Benchmark {
+
+    /** Runs the benchmark named by ARGS[0] with the remaining ARGS. */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark checkout "
+                    + "[FILES] [SIZE] [ROUNDS]");
+            System.out.println("       java gitlet.Benchmark merge "
+                    + "[COMMITS] [DISTANCE] [ROUNDS]");
+            System.out.println("       java gitlet.Benchmark codec "
+                    + "[COMMITS] [ROUNDS]");
+            System.out.println("       java gitlet.Benchmark commands "
+                    + "[FILES] [SIZE] [DEPTH] [BRANCHES] [ROUNDS]");
+            System.out.println("       java gitlet.Benchmark compression "
+                    + "[DIR] [ROUNDS]");
+            return;
+        }
+        if (args[0].equals("compression")) {
+            compression(new File(args.length > 1 ? args[1] : "."),
+                    Math.max(1, intArg(args, 2, 5)));
+            return;
+        }
+        if (Main.GIT.exists()) {
+            System.out.println("Run benchmarks in an empty directory.");
+            return;
+        }
+        if (args[0].equals("checkout")) {
+            checkout(intArg(args, 1, 5000), intArg(args, 2, 4096),
+                    intArg(args, 3, 5));
+        } else if (args[0].equals("merge")) {
+            merge(intArg(args, 1, 100000), intArg(args, 2, 10),
+                    intArg(args, 3, 5));
+        } else if (args[0].equals("codec")) {
+            codec(intArg(args, 1, 100000), intArg(args, 2, 5));
+        } else if (args[0].equals("commands")) {
+            commands(Math.max(1, intArg(args, 1, 1000)),
+                    intArg(args, 2, 4096), Math.max(2, intArg(args, 3, 200)),
+                    Math.max(1, intArg(args, 4, 4)),
+                    Math.max(1, intArg(args, 5, 10)));
+        } else {
+            System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /** Returns ARGS[K] as an int, or DEFAULT if there is no ARGS[K]. */
+    private static int intArg(String[] args, int k, int dflt) {
+        return args.length > k ? Integer.parseInt(args[k]) : dflt;
+    }
+
+    /** Times switching from an empty branch to one holding FILES files
+     *  of SIZE bytes, ROUNDS times, first with one worker and then with
+     *  the default number of workers, and prints the best time of each. */
+    static void checkout(int files, int size, int rounds) {
+        Main.main("init");
+        Main.main("branch", "empty");
+        writeFiles(files, size, 0);
+        Main.main("commit", "files");
+        int parallel = Restore.workers();
+        long serial = timeCheckouts(1, rounds);
+        long pooled = timeCheckouts(parallel, rounds);
+        System.out.printf("checkout files=%d size=%d serial=%dms "
+                + "workers=%d parallel=%dms%n", files, size,
+                serial / 1000000, parallel, pooled / 1000000);
+    }
+
+    /** Returns the best time, in nanoseconds, of ROUNDS checkouts of
+     *  master from the empty branch using WORKERS workers. */
+    private static long timeCheckouts(int workers, int rounds) {
+        System.setProperty("gitlet.workers", Integer.toString(workers));
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i += 1) {
+            Main.main("checkout", "empty");
+            long start = System.nanoTime();
+            Main.main("checkout", "master");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.clearProperty("gitlet.workers");
+        return best;
+    }
+
+    /** Builds a history of COMMITS commits: one line of history that
+     *  splits into two branches of DISTANCE commits each. Times finding
+     *  the split point ROUNDS times through the commit graph, and once
+     *  by collecting every ancestor of one branch, and prints the best
+     *  time of the first and the time of the second. */
+    static void merge(int commits, int distance, int rounds) {
+        Main.main("init");
+        Commits root = Main.headCommit();
+        String tree = root.getTreeSha();
+        ArrayList<Commits> history = new ArrayList<>();
+        String trunk = root.getCommitID();
+        for (int i = 1; i < commits - 2 * distance; i += 1) {
+            trunk = addCommit(history, "trunk " + i, tree, trunk);
+        }
+        String ours = trunk;
+        String theirs = trunk;
+        for (int i = 0; i < distance; i += 1) {
+            ours = addCommit(history, "ours " + i, tree, ours);
+            theirs = addCommit(history, "theirs " + i, tree, theirs);
+        }
+        CommitGraph.append(history);
+        Journal.update(Utils.join(Main.BRANCHES, "master"), ours);
+        Journal.update(Utils.join(Main.BRANCHES, "other"), theirs);
+        Journal.commit();
+
+        CommitGraph graph = CommitGraph.open();
+        int a = graph.indexOf(ours);
+        int b = graph.indexOf(theirs);
+        long best = Long.MAX_VALUE;
+        int base = CommitGraph.NONE;
+        for (int i = 0; i < rounds; i += 1) {
+            long start = System.nanoTime();
+            base = graph.mergeBase(a, b);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long start = System.nanoTime();
+        HashSet<Integer> ancestors = new HashSet<>();
+        for (int i = a; i != CommitGraph.NONE; i = graph.parent(i)) {
+            ancestors.add(i);
+        }
+        int walked = b;
+        while (!ancestors.contains(walked)) {
+            walked = graph.parent(walked);
+        }
+        long walk = System.nanoTime() - start;
+        if (walked != base || !graph.id(base).equals(trunk)) {
+            throw new IllegalStateException("wrong split point");
+        }
+        System.out.printf("merge commits=%d distance=%d base=%dus "
+                + "walk=%dus%n", graph.size(), distance, best / 1000,
+                walk / 1000);
+    }
+
+    /** Stores a commit with MESSAGE, TREE and PARENT, adds it to
+     *  HISTORY, and returns its id. */
+    private static String addCommit(List<Commits> history, String message,
+                                     String tree, String parent) {
+        Commits commit = new Commits(message, tree, parent);
+        commit.save();
+        history.add(commit);
+        return commit.getCommitID();
+    }
+
+    /** Encodes and decodes COMMITS commits, ROUNDS times, with Java
+     *  serialization and with the binary encoding, and prints the best
+     *  time per commit and the average size of each. */
+    static void codec(int commits, int rounds) {
+        ArrayList<Commits> history = new ArrayList<>();
+        String tree = Utils.sha1("tree");
+        String parent = null;
+        for (int i = 0; i < commits; i += 1) {
+            Commits commit = new Commits("commit number " + i, tree, parent);
+            history.add(commit);
+            parent = commit.getCommitID();
+        }
+        long serialBytes = 0;
+        long binaryBytes = 0;
+        long serial = Long.MAX_VALUE;
+        long binary = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r += 1) {
+            long start = System.nanoTime();
+            serialBytes = 0;
+            for (Commits commit : history) {
+                byte[] bytes = Utils.serialize(commit);
+                serialBytes += bytes.length;
+                Utils.deserialize(bytes, Commits.class);
+            }
+            serial = Math.min(serial, System.nanoTime() - start);
+            start = System.nanoTime();
+            binaryBytes = 0;
+            for (Commits commit : history) {
+                byte[] bytes = commit.encode();
+                binaryBytes += bytes.length;
+                Commits.decode(ByteBuffer.wrap(bytes), commit.getCommitID());
+            }
+            binary = Math.min(binary, System.nanoTime() - start);
+        }
+        System.out.printf("codec commits=%d serialization=%dns/%dB "
+                + "binary=%dns/%dB%n", commits, serial / commits,
+                serialBytes / commits, binary / commits,
+                binaryBytes / commits);
+    }
+
+    /** Settings of Codec compared by the compression benchmark. */
+    private static final String[] SETTINGS = {"none", "fast", "1", "6", "9"};
+
+    /** Levels of Codec matching SETTINGS. */
+    private static final int[] LEVELS = {0, -1, 1, 6, 9};
+
+    /** Encodes and decodes every file under DIR, ROUNDS times, with each
+     *  setting of Codec, and prints the stored size and best speed of
+     *  each. */
+    static void compression(File dir, int rounds) {
+        ArrayList<byte[]> files = new ArrayList<>();
+        readFiles(dir, files);
+        long bytes = 0;
+        for (byte[] file : files) {
+            bytes += file.length;
+        }
+        if (bytes == 0) {
+            System.out.println("No files to compress.");
+            return;
+        }
+        for (int k = 0; k < SETTINGS.length; k += 1) {
+            long stored = 0;
+            long encode = Long.MAX_VALUE;
+            long decode = Long.MAX_VALUE;
+            ArrayList<byte[]> encoded = new ArrayList<>();
+            for (int r = 0; r < rounds; r += 1) {
+                encoded.clear();
+                stored = 0;
+                long start = System.nanoTime();
+                for (byte[] file : files) {
+                    byte[] coded = Codec.encode(file, LEVELS[k]);
+                    stored += coded.length;
+                    encoded.add(coded);
+                }
+                encode = Math.min(encode, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (byte[] coded : encoded) {
+                    Codec.decode(coded);
+                }
+                decode = Math.min(decode, System.nanoTime() - start);
+            }
+            System.out.printf("compression setting=%s files=%d bytes=%d "
+                    + "stored=%d ratio=%.2f encode=%.0fMB/s "
+                    + "decode=%.0fMB/s%n", SETTINGS[k], files.size(), bytes,
+                    stored, (double) bytes / stored,
+                    bytes * 1e9 / Math.max(encode, 1) / (1 << 20),
+                    bytes * 1e9 / Math.max(decode, 1) / (1 << 20));
+        }
+    }
+
+    /** Adds the contents of every plain file under DIR to FILES, leaving
+     *  out .gitlet folders. */
+    private static void readFiles(File dir, List<byte[]> files) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                if (!entry.getName().equals(".gitlet")) {
+                    readFiles(entry, files);
+                }
+            } else if (entry.isFile()) {
+                files.add(Utils.readContents(entry));
+            }
+        }
+    }
+
+    /** Builds a repository of FILES files of SIZE bytes with a history
+     *  of DEPTH commits and BRANCHES branches, then times add, commit,
+     *  checkout, reset, log, global-log, find and status on it, each
+     *  ROUNDS times after as many rounds of warmup, and prints a JSON
+     *  report of the best and mean time and the bytes allocated by each.
+     *  Commands run in this JVM, with their output thrown away. */
+    static void commands(int files, int size, int depth, int branches,
+                         int rounds) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        StringBuilder report = new StringBuilder();
+        try {
+            long start = System.nanoTime();
+            Random random = new Random(files);
+            String[] branchNames = generate(files, size, depth, branches,
+                    random);
+            report.append(String.format(Locale.ROOT,
+                    "{\"benchmark\": \"commands\", "
+                    + "\"files\": %d, \"size\": %d, \"depth\": %d, "
+                    + "\"branches\": %d, \"rounds\": %d, "
+                    + "\"workers\": %d, \"fsync\": %s, "
+                    + "\"generate_ms\": %d, \"results\": [",
+                    files, size, depth, branches, rounds, Restore.workers(),
+                    Journal.syncing(),
+                    (System.nanoTime() - start) / 1000000));
+            byte[] contents = new byte[size];
+            int[] round = {0};
+            String dir = "d0/";
+            measure(report, "add", rounds, () -> {
+                for (int i = 0; i < ADDED && 32 * i < files; i += 1) {
+                    random.nextBytes(contents);
+                    Utils.writeContents(Utils.join(Main.CURRENTDIRECTORY,
+                            dir, "f" + (32 * i)), contents);
+                }
+            }, "add", dir);
+            measure(report, "commit", rounds, () -> {
+                random.nextBytes(contents);
+                Utils.writeContents(Utils.join(Main.CURRENTDIRECTORY,
+                        dir, "f0"), contents);
+                Main.main("add", dir + "f0");
+            }, "commit", "benchmark commit");
+            String tip = Main.headCommit().getCommitID();
+            String parent = Main.headCommit().getParentSha();
+            measure(report, "checkout", rounds, () -> round[0] += 1,
+                    () -> new String[] {"checkout", round[0] % 2 == 1
+                        ? branchNames[0] : "master"});
+            Main.main("checkout", "master");
+            measure(report, "reset", rounds, () -> round[0] += 1,
+                    () -> new String[] {"reset",
+                        round[0] % 2 == 1 ? parent : tip});
+            Main.main("reset", tip);
+            measure(report, "log", rounds, null, "log");
+            measure(report, "global-log", rounds, null, "global-log");
+            measure(report, "find", rounds, null, "find",
+                    "commit " + depth / 2);
+            measure(report, "status", rounds, null, "status");
+            report.setLength(report.length() - 1);
+            report.append("\n]}");
+        } finally {
+            System.setOut(console);
+        }
+        System.out.println(report);
+    }
+
+    /** Most files the add benchmark changes in each round. */
+    private static final int ADDED = 8;
+
+    /** Builds the repository for the commands benchmark, as described
+     *  there, with file contents from RANDOM. The history is one line of
+     *  DEPTH commits, each of which changes one file; BRANCHES branches
+     *  start at evenly spaced commits of it and add one commit of their
+     *  own. Returns the names of the branches, oldest first. */
+    private static String[] generate(int files, int size, int depth,
+                                     int branches, Random random) {
+        Main.main("init");
+        writeFiles(files, size, files);
+        Main.main("commit", "commit 1");
+        String[] names = new String[branches];
+        byte[] contents = new byte[size];
+        for (int c = 2, b = 0; c <= depth; c += 1) {
+            while (b < branches && c > (long) depth * b / branches) {
+                names[b] = "branch" + b;
+                Main.main("branch", names[b]);
+                b += 1;
+            }
+            int file = c % files;
+            String path = "d" + (file % 32) + "/f" + file;
+            random.nextBytes(contents);
+            Utils.writeContents(Utils.join(Main.CURRENTDIRECTORY, path),
+                    contents);
+            Main.main("add", path);
+            Main.main("commit", "commit " + c);
+        }
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            Main.main("checkout", name);
+            String path = "d0/" + name;
+            Utils.writeContents(Utils.join(Main.CURRENTDIRECTORY, path),
+                    name);
+            Main.main("add", path);
+            Main.main("commit", "commit on " + name);
+        }
+        Main.main("checkout", "master");
+        return names;
+    }
+
+    /** Times the command ARGS ROUNDS times, after ROUNDS rounds of
+     *  warmup, running SETUP, if it is not null, untimed before each, and
+     *  appends its results, labelled NAME, to REPORT. */
+    private static void measure(StringBuilder report, String name,
+                                int rounds, Runnable setup, String... args) {
+        measure(report, name, rounds, setup, () -> args);
+    }
+
+    /** Times the command that ARGS supplies ROUNDS times, after ROUNDS
+     *  rounds of warmup, running SETUP, if it is not null, untimed before
+     *  each, and appends its results, labelled NAME, to REPORT. The bytes
+     *  allocated are those of the thread running the command; work it
+     *  hands to pools is not counted. */
+    private static void measure(StringBuilder report, String name,
+                                int rounds, Runnable setup,
+                                Supplier<String[]> args) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        long allocated = 0;
+        for (int i = -rounds; i < rounds; i += 1) {
+            if (setup != null) {
+                setup.run();
+            }
+            String[] command = args.get();
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            Main.main(command);
+            long time = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+            if (i >= 0) {
+                best = Math.min(best, time);
+                total += time;
+                allocated += bytes;
+            }
+        }
+        long mean = total / rounds;
+        report.append(String.format(Locale.ROOT,
+                "\n  {\"command\": \"%s\", "
+                + "\"best_us\": %d, \"mean_us\": %d, "
+                + "\"alloc_bytes_per_op\": %d, \"alloc_mb_per_s\": %.1f},",
+                name, best / 1000, mean / 1000, allocated / rounds,
+                allocated * 1e9 / Math.max(total, 1) / (1 << 20)));
+    }
+
+    /** Writes FILES files of SIZE bytes, spread over subdirectories,
+     *  whose contents depend on SEED, and stages them all with one
+     *  write of the index. */
+    static void writeFiles(int files, int size, int seed) {
+        Index index = Index.read();
+        Random random = new Random(seed);
+        byte[] contents = new byte[size];
+        for (int i = 0; i < files; i += 1) {
+            String path = "d" + (i % 32) + "/f" + i;
+            File file = Utils.join(Main.CURRENTDIRECTORY, path);
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            random.nextBytes(contents);
+            Utils.writeContents(file, contents);
+            index.stage(path, new Blob(path).saveBlob(), file);
+        }
+        index.write();
+        Journal.commit();
+    }
+}
@@ -1,18 +1,26 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 
-/** Blob Obeject.
+/** Blob Obeject. A blob is stored under the SHA-1 of the raw bytes
+ *  of a file, with no name attached, so renames and copies share one
+ *  stored object. Contents are streamed in CHUNK sized pieces, through
+ *  the compressor if loose objects are compressed, and are never held
+ *  on the heap as a whole.
  *  @author Cassandra Calciano
  */
-public class Blob implements Serializable {
-
-    /** Name of File with blob as contents. */
-    private String _fileName;
-
-    /** String with the contents of the Blob. */
-    private String _contents;
+public class Blob {
 
     /** File to hold .gitlet. */
     static final File GIT = new File(".gitlet");
@@ -20,27 +28,115 @@ public class Blob implements Serializable {
     /** Folder to hold all blobs. */
     static final File BLOBS = Utils.join(GIT, "blobs");
 
+    /** Size of the buffer used to hash and copy file contents. */
+    static final int CHUNK = 1 << 16;
+
+    /** File whose contents this blob holds. */
+    private File _file;
 
     /** Blob Constructor.
      * @param name */
     public Blob(String name) {
-        _fileName = name;
-        File fileToBeRead = new File(name);
-        _contents = Utils.readContentsAsString(fileToBeRead);
+        _file = new File(name);
     }
 
-    /** String with the contents of the Blob.
-     * @return */
+    /** Hashes the file and writes its bytes into BLOBS in one pass,
+     *  keeping the stored copy only if that content is new. A file of
+     *  at least Chunker.LARGE bytes is stored as chunks instead.
+     * @return the SHA-1 of the contents */
     public String saveBlob() {
-        String sha1 = Utils.sha1(_contents);
-        File sha1File = Utils.join(BLOBS, sha1);
-        Utils.writeObject(sha1File, this);
-        return sha1;
+        try {
+            if (_file.length() >= Chunker.LARGE) {
+                return Chunker.store(_file);
+            }
+            long start = Trace.start();
+            Path tmp = Files.createTempFile(BLOBS.toPath(), "blob", ".tmp");
+            MessageDigest md = Utils.sha1Digest();
+            try (FileChannel out = FileChannel.open(tmp,
+                    StandardOpenOption.WRITE)) {
+                if (!ObjectStore.headed()) {
+                    digest(_file, md, out);
+                } else {
+                    int level = Codec.level();
+                    try (OutputStream encoded = Codec.encoder(
+                            Channels.newOutputStream(out), _file.length(),
+                            level)) {
+                        long size = digest(_file, md,
+                                Channels.newChannel(encoded));
+                        if (level != 0) {
+                            Codec.setSize(out, size);
+                        }
+                    }
+                }
+            }
+            String sha1 = Utils.toHex(md.digest());
+            if (ObjectStore.contains(ObjectStore.BLOB, sha1)) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, Utils.join(BLOBS, sha1).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                Journal.wrote(Utils.join(BLOBS, sha1));
+            }
+            Trace.end(Trace.STORE, start, _file.length());
+            return sha1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the blob SHA-1 FILE would be stored under, without
+     *  storing it. */
+    static String hash(File file) {
+        try {
+            MessageDigest md = Utils.sha1Digest();
+            digest(file, md, null);
+            return Utils.toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Streams FILE through MD in CHUNK sized pieces, copying each
+     *  piece to OUT as well unless OUT is null.
+     * @return the number of bytes read */
+    private static long digest(File file, MessageDigest md,
+                               WritableByteChannel out)
+        throws IOException {
+        long start = Trace.start();
+        long size = 0;
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK);
+            while (in.read(buf) != -1) {
+                size += buf.position();
+                buf.flip();
+                buf.mark();
+                md.update(buf);
+                buf.reset();
+                while (out != null && buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                buf.clear();
+            }
+        }
+        Trace.end(Trace.SHA1, start, size);
+        return size;
     }
 
-    /** String with the contents of the Blob.
-     * @return */
-    public String getContents() {
-        return _contents;
+    /** Writes the blob named SHA1 to DEST, replacing whatever DEST
+     *  held. The bytes are streamed from the object store, so memory use
+     *  does not depend on the size of the blob. */
+    static void restore(String sha1, File dest) {
+        File parent = dest.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (FileChannel out = FileChannel.open(dest.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ObjectStore.copyTo(ObjectStore.BLOB, sha1, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 }
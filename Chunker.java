@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+/** Content-defined chunking of large files. A file of at least LARGE
+ *  bytes is cut into chunks wherever a rolling gear hash of the last
+ *  bytes read hits a mask, as in FastCDC, so an edit only moves the
+ *  boundaries near it. Each chunk is stored once under the SHA-1 of its
+ *  bytes, and the blob of the file is a manifest listing its chunks in
+ *  order. The blob keeps the SHA-1 of the whole file as its name, so
+ *  nothing outside the object store can tell a chunked blob from a
+ *  plain one.
+ *  <p>
+ *  Manifest: chunk count (int), then per chunk its raw id and length
+ *  (int).
+ *  @author Cassandra Calciano
+ */
+class Chunker {
+
+    /** Smallest file that is chunked. */
+    static final long LARGE = 1 << 20;
+
+    /** Smallest chunk, except at the end of a file. */
+    private static final int MIN = 1 << 14;
+
+    /** Chunk size aimed for. */
+    private static final int AVG = 1 << 16;
+
+    /** Largest chunk. */
+    private static final int MAX = 1 << 18;
+
+    /** Mask tested before a chunk reaches AVG bytes; with more bits set
+     *  than AVG calls for, it makes short chunks rarer. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+
+    /** Mask tested once a chunk is past AVG bytes; with fewer bits set,
+     *  it makes long chunks rarer. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** Bytes read from a file at a time. */
+    private static final int BUFFER = 4 * MAX;
+
+    /** Random value mixed into the hash for each byte value. These must
+     *  never change, or files would be cut differently than before. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Stores FILE as chunks and a manifest, writing only the chunks
+     *  that are not already stored.
+     * @return the SHA-1 of the contents of FILE */
+    static String store(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return store(in);
+        }
+    }
+
+    /** Stores what remains to be read from IN as chunks and a manifest,
+     *  like store(File).
+     * @return the SHA-1 of the contents */
+    static String store(ReadableByteChannel in) throws IOException {
+        Main.MANIFESTS.mkdir();
+        Main.CHUNKS.mkdir();
+        MessageDigest whole = sha1();
+        MessageDigest part = sha1();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream manifest = new DataOutputStream(bytes);
+        int count = 0;
+        byte[] buf = new byte[BUFFER];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && end - start < MAX) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buf.length) {
+                    int n = in.read(ByteBuffer.wrap(buf, end,
+                            buf.length - end));
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += n;
+                }
+            }
+            if (start == end) {
+                break;
+            }
+            int length = cut(buf, start, end);
+            whole.update(buf, start, length);
+            part.update(buf, start, length);
+            byte[] id = part.digest();
+            String name = Utils.toHex(id);
+            if (!ObjectStore.contains(ObjectStore.CHUNK, name)) {
+                ObjectStore.write(ObjectStore.CHUNK, name,
+                        Arrays.copyOfRange(buf, start, start + length));
+            }
+            manifest.write(id);
+            manifest.writeInt(length);
+            count += 1;
+            start += length;
+        }
+        manifest.close();
+        String sha1 = Utils.toHex(whole.digest());
+        ByteBuffer stored = ByteBuffer.allocate(4 + bytes.size());
+        stored.putInt(count).put(bytes.toByteArray());
+        ObjectStore.write(ObjectStore.MANIFEST, sha1, stored.array());
+        return sha1;
+    }
+
+    /** Returns the length of the chunk that starts at BUF[START], where
+     *  BUF holds file bytes up to END. Unless the file ends at END,
+     *  there must be at least MAX bytes, so that where a chunk ends
+     *  never depends on how the file was read. */
+    static int cut(byte[] buf, int start, int end) {
+        int limit = Math.min(end - start, MAX);
+        if (limit <= MIN) {
+            return limit;
+        }
+        int normal = Math.min(AVG, limit);
+        long hash = 0;
+        int i = MIN;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buf[start + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[buf[start + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Returns the contents of the blob with MANIFEST. */
+    static byte[] join(byte[] manifest) {
+        ByteBuffer list = ByteBuffer.wrap(manifest);
+        int count = list.getInt();
+        long size = 0;
+        for (int i = 0; i < count; i += 1) {
+            size += list.getInt(4 + i * (CommitGraph.ID_BYTES + 4)
+                    + CommitGraph.ID_BYTES);
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw Utils.error("File too large to read into memory.");
+        }
+        ByteBuffer result = ByteBuffer.allocate((int) size);
+        byte[] id = new byte[CommitGraph.ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            list.get(id);
+            list.getInt();
+            result.put(ObjectStore.read(ObjectStore.CHUNK,
+                    Utils.toHex(id)));
+        }
+        return result.array();
+    }
+
+    /** Writes the contents of the blob with MANIFEST to OUT, streaming
+     *  its chunks in order. */
+    static void copyTo(byte[] manifest, FileChannel out) throws IOException {
+        ByteBuffer list = ByteBuffer.wrap(manifest);
+        int count = list.getInt();
+        byte[] id = new byte[CommitGraph.ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            list.get(id);
+            list.getInt();
+            ObjectStore.copyTo(ObjectStore.CHUNK, Utils.toHex(id), out);
+        }
+    }
+
+    /** Returns a stream of the contents of the blob with MANIFEST, which
+     *  reads its chunks one at a time. */
+    static InputStream open(byte[] manifest) {
+        ByteBuffer list = ByteBuffer.wrap(manifest);
+        int count = list.getInt();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            /** Number of chunks opened so far. */
+            private int _opened;
+
+            @Override
+            public boolean hasMoreElements() {
+                return _opened < count;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                byte[] id = new byte[CommitGraph.ID_BYTES];
+                list.get(id);
+                list.getInt();
+                _opened += 1;
+                return ObjectStore.open(ObjectStore.CHUNK, Utils.toHex(id));
+            }
+        });
+    }
+
+    /** Returns a new SHA-1 digest. */
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+}
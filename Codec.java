@@ -0,0 +1,628 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Compression of stored objects. An encoded object starts with a
+ *  header byte naming its encoding: STORED, the bytes as they are;
+ *  DEFLATE, a zlib stream; or FAST, LZ77 blocks that compress less
+ *  than zlib but in a fraction of the time. A compressed object gives
+ *  its size (long) after the header byte.
+ *  <p>
+ *  New objects are encoded as the gitlet.compression property or the
+ *  GITLET_COMPRESSION environment variable says: a zlib level from 1 to
+ *  9, "fast", or "none". The default is zlib level 6. Objects that do
+ *  not shrink are stored as they are, whatever the setting.
+ *  <p>
+ *  FAST block: size (int), stored length (int), then the stored bytes,
+ *  which are the block itself if the lengths are equal. Otherwise they
+ *  are sequences of a token byte, whose high and low four bits give the
+ *  number of literals and the length of a match less MIN_MATCH, with 15
+ *  meaning that bytes of 255 and one below 255 follow to be added; the
+ *  literals; and the distance back to the match (two bytes, low byte
+ *  first). The last sequence of a block has no match.
+ *  @author Cassandra Calciano
+ */
+class Codec {
+
+    /** Encoding of bytes kept as they are. */
+    static final byte STORED = 0;
+
+    /** Encoding of a zlib stream. */
+    static final byte DEFLATE = 1;
+
+    /** Encoding of FAST blocks. */
+    static final byte FAST = 2;
+
+    /** zlib level used unless the setting asks for another. */
+    private static final int DEFAULT_LEVEL = 6;
+
+    /** Bytes before the data of a compressed object. */
+    static final int HEADER = 9;
+
+    /** Bytes in one FAST block, and in the buffers of the streams. */
+    private static final int BLOCK = 1 << 16;
+
+    /** Shortest match a FAST block records. */
+    private static final int MIN_MATCH = 4;
+
+    /** Bits of the hash of the next MIN_MATCH bytes that pick a slot of
+     *  the FAST match table. */
+    private static final int HASH_BITS = 13;
+
+    /** Returns the zlib level asked for by the compression setting, 0
+     *  for "none", or -1 for "fast". */
+    static int level() {
+        String setting = System.getProperty("gitlet.compression",
+                System.getenv("GITLET_COMPRESSION"));
+        if (setting == null) {
+            return DEFAULT_LEVEL;
+        }
+        setting = setting.trim();
+        if (setting.equals("fast")) {
+            return -1;
+        } else if (setting.equals("none")) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(9, Integer.parseInt(setting)));
+        } catch (NumberFormatException excp) {
+            return DEFAULT_LEVEL;
+        }
+    }
+
+    /** Returns RAW encoded as the compression setting says. */
+    static byte[] encode(byte[] raw) {
+        return encode(raw, level());
+    }
+
+    /** Returns RAW encoded at LEVEL, as returned by level(). */
+    static byte[] encode(byte[] raw, int level) {
+        byte[] result = new byte[raw.length + 1];
+        int n = -1;
+        if (level < 0) {
+            int[] table = new int[Math.max(1 << 8, Math.min(1 << HASH_BITS,
+                    Integer.highestOneBit(raw.length)))];
+            byte[] coded = new byte[bound(Math.min(raw.length, BLOCK))];
+            ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(raw.length / 2 + HEADER);
+            bytes.writeBytes(header(FAST, raw.length));
+            for (int k = 0; k < raw.length; k += BLOCK) {
+                compress(raw, k, Math.min(BLOCK, raw.length - k), table,
+                        coded, bytes);
+            }
+            if (bytes.size() < result.length) {
+                return bytes.toByteArray();
+            }
+        } else if (level > 0 && result.length > HEADER) {
+            Deflater deflater = new Deflater(level);
+            deflater.setInput(raw);
+            deflater.finish();
+            n = deflater.deflate(result, HEADER, result.length - HEADER);
+            if (!deflater.finished()) {
+                n = -1;
+            }
+            deflater.end();
+        }
+        if (n < 0) {
+            result[0] = STORED;
+            System.arraycopy(raw, 0, result, 1, raw.length);
+            return result;
+        }
+        System.arraycopy(header(DEFLATE, raw.length), 0, result, 0, HEADER);
+        return Arrays.copyOf(result, HEADER + n);
+    }
+
+    /** Returns the header of an object of SIZE bytes compressed by
+     *  ENCODING. */
+    private static byte[] header(byte encoding, long size) {
+        return ByteBuffer.allocate(HEADER).put(encoding).putLong(size)
+                .array();
+    }
+
+    /** Returns the bytes encoded in STORED. */
+    static byte[] decode(byte[] stored) {
+        if (stored[0] == STORED) {
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        }
+        long size = ByteBuffer.wrap(stored, 1, 8).getLong();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("object too large to read");
+        }
+        byte[] result = new byte[(int) size];
+        if (stored[0] == FAST) {
+            int in = HEADER;
+            int out = 0;
+            while (in < stored.length) {
+                ByteBuffer head = ByteBuffer.wrap(stored, in, 8);
+                int length = head.getInt();
+                int coded = head.getInt();
+                in += 8;
+                expand(stored, in, coded, result, out, length);
+                in += coded;
+                out += length;
+            }
+            return result;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, HEADER, stored.length - HEADER);
+            int done = 0;
+            while (done < result.length && !inflater.finished()) {
+                int n = inflater.inflate(result, done,
+                        result.length - done);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                done += n;
+            }
+            if (done != result.length) {
+                throw new IllegalArgumentException("corrupt object");
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt object");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns the size of the object encoded in a stream that begins
+     *  with HEAD, which holds at least the first HEADER bytes of it, or
+     *  all of it if it is shorter. LENGTH is the length of the whole
+     *  encoded object. */
+    static long size(byte[] head, long length) {
+        return head[0] == STORED ? length - 1
+                : ByteBuffer.wrap(head, 1, 8).getLong();
+    }
+
+    /** Returns a stream that encodes what is written to it at LEVEL,
+     *  as returned by level(), writing it to OUT after a header for an
+     *  object of SIZE bytes. The header may be rewritten once the size
+     *  is known for certain with setSize. Closing the stream closes
+     *  OUT. */
+    static OutputStream encoder(OutputStream out, long size, int level)
+        throws IOException {
+        if (level == 0) {
+            out.write(STORED);
+            return out;
+        }
+        out.write(header(level < 0 ? FAST : DEFLATE, size));
+        if (level < 0) {
+            return new FastOutputStream(out);
+        }
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BLOCK) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /** Rewrites the size in the header at the start of OUT, to which an
+     *  encoder wrote a compressed object, as SIZE. */
+    static void setSize(FileChannel out, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8).putLong(size).flip();
+        while (buf.hasRemaining()) {
+            out.write(buf, 1 + buf.position());
+        }
+    }
+
+    /** Returns a stream of the object encoded in IN, whose header has
+     *  not been read yet. Closing the stream closes IN. */
+    static InputStream decoder(InputStream in) throws IOException {
+        int encoding = in.read();
+        if (encoding == STORED) {
+            return in;
+        }
+        new DataInputStream(in).readLong();
+        if (encoding == FAST) {
+            return new FastInputStream(in);
+        } else if (encoding != DEFLATE) {
+            throw new IllegalArgumentException("corrupt object");
+        }
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BLOCK) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /** Writes the object encoded in IN, from its position, to OUT.
+     *  Stored objects are moved channel to channel without passing
+     *  through the heap. */
+    static void copy(FileChannel in, FileChannel out) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(1);
+        in.read(head, in.position());
+        if (head.get(0) == STORED) {
+            long pos = in.position() + 1;
+            long size = in.size();
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+            return;
+        }
+        InputStream decoded = decoder(Channels.newInputStream(in));
+        byte[] buf = new byte[BLOCK];
+        ByteBuffer wrapped = ByteBuffer.wrap(buf);
+        for (int n = decoded.read(buf); n >= 0; n = decoded.read(buf)) {
+            wrapped.clear().limit(n);
+            while (wrapped.hasRemaining()) {
+                out.write(wrapped);
+            }
+        }
+    }
+
+    /** Writes the object encoded in the remaining bytes of IN, which is
+     *  usually a mapped slice of a file, to OUT a block at a time. Stored
+     *  objects and raw FAST blocks are written from IN itself, and
+     *  deflated ones inflated from it, so that the heap holds at most a
+     *  block however large the object is. */
+    static void copy(ByteBuffer in, WritableByteChannel out)
+        throws IOException {
+        ByteBuffer body = in.duplicate();
+        byte encoding = body.get();
+        if (encoding == STORED) {
+            writeFully(body, out);
+            return;
+        }
+        long size = body.getLong();
+        byte[] block = new byte[BLOCK];
+        long done = 0;
+        if (encoding == FAST) {
+            byte[] coded = new byte[bound(BLOCK)];
+            while (body.hasRemaining()) {
+                int length = body.getInt();
+                int codedLength = body.getInt();
+                if (length > BLOCK || codedLength > coded.length
+                        || codedLength > body.remaining()) {
+                    throw new IllegalArgumentException("corrupt object");
+                }
+                if (codedLength == length) {
+                    int next = body.position() + length;
+                    writeFully(body.duplicate().limit(next), out);
+                    body.position(next);
+                } else {
+                    body.get(coded, 0, codedLength);
+                    expand(coded, 0, codedLength, block, 0, length);
+                    writeFully(ByteBuffer.wrap(block, 0, length), out);
+                }
+                done += length;
+            }
+        } else {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(body);
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(block);
+                    if (n == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    writeFully(ByteBuffer.wrap(block, 0, n), out);
+                    done += n;
+                }
+            } catch (DataFormatException excp) {
+                throw new IllegalArgumentException("corrupt object");
+            } finally {
+                inflater.end();
+            }
+        }
+        if (done != size) {
+            throw new IllegalArgumentException("corrupt object");
+        }
+    }
+
+    /** Writes all the remaining bytes of BUF to OUT. */
+    private static void writeFully(ByteBuffer buf, WritableByteChannel out)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Writes the LENGTH bytes of DATA from START to OUT as a FAST
+     *  block. TABLE is scratch space whose length is a power of two, and
+     *  CODED scratch space of at least bound(LENGTH) bytes. */
+    private static void compress(byte[] data, int start, int length,
+                                 int[] table, byte[] coded,
+                                 ByteArrayOutputStream out) {
+        Arrays.fill(table, -1);
+        int shift = Integer.numberOfLeadingZeros(table.length) + 1;
+        int n = 0;
+        int anchor = start;
+        int end = start + length;
+        int limit = end - MIN_MATCH;
+        int i = start;
+        while (i <= limit) {
+            int seq = word(data, i);
+            int slot = (seq * 0x9e3779b1) >>> shift;
+            int ref = table[slot];
+            table[slot] = i;
+            if (ref < 0 || i - ref > 0xffff || word(data, ref) != seq) {
+                i += 1 + ((i - anchor) >> 6);
+                continue;
+            }
+            int last = i + MIN_MATCH;
+            while (last < end && data[last] == data[last - i + ref]) {
+                last += 1;
+            }
+            n = sequence(data, anchor, i - anchor, i - ref,
+                    last - i - MIN_MATCH, coded, n);
+            i = last;
+            anchor = last;
+        }
+        n = sequence(data, anchor, end - anchor, 0, -1, coded, n);
+        boolean shrunk = n < length;
+        out.writeBytes(ByteBuffer.allocate(8).putInt(length)
+                .putInt(shrunk ? n : length).array());
+        if (shrunk) {
+            out.write(coded, 0, n);
+        } else {
+            out.write(data, start, length);
+        }
+    }
+
+    /** Returns the most bytes a FAST block of LENGTH bytes can take. */
+    private static int bound(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /** Returns the four bytes of DATA from K as an int. */
+    private static int word(byte[] data, int k) {
+        return (data[k] & 0xff) | (data[k + 1] & 0xff) << 8
+                | (data[k + 2] & 0xff) << 16 | (data[k + 3] & 0xff) << 24;
+    }
+
+    /** Writes to OUT from N a sequence of the LITERALS bytes of BLOCK
+     *  from START, then a match DISTANCE back of MATCH + MIN_MATCH
+     *  bytes, or no match if MATCH is negative.
+     * @return the new length of OUT */
+    private static int sequence(byte[] block, int start, int literals,
+                                int distance, int match, byte[] out,
+                                int n) {
+        int token = Math.min(literals, 15) << 4
+                | (match < 0 ? 0 : Math.min(match, 15));
+        out[n] = (byte) token;
+        n = extra(literals, out, n + 1);
+        System.arraycopy(block, start, out, n, literals);
+        n += literals;
+        if (match >= 0) {
+            out[n] = (byte) distance;
+            out[n + 1] = (byte) (distance >>> 8);
+            n = extra(match, out, n + 2);
+        }
+        return n;
+    }
+
+    /** Writes to OUT from N what COUNT adds to its token's 15, if it
+     *  does not fit in the token.
+     * @return the new length of OUT */
+    private static int extra(int count, byte[] out, int n) {
+        if (count < 15) {
+            return n;
+        }
+        for (count -= 15; count >= 255; count -= 255) {
+            out[n] = (byte) 255;
+            n += 1;
+        }
+        out[n] = (byte) count;
+        return n + 1;
+    }
+
+    /** Writes the LENGTH bytes of the FAST block stored in the CODED
+     *  bytes of IN from START to OUT from POS. */
+    private static void expand(byte[] in, int start, int coded, byte[] out,
+                               int pos, int length) {
+        if (coded == length) {
+            System.arraycopy(in, start, out, pos, length);
+            return;
+        }
+        int i = start;
+        int end = start + coded;
+        int last = pos + length;
+        try {
+            while (i < end) {
+                int token = in[i] & 0xff;
+                i += 1;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = in[i] & 0xff;
+                        i += 1;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(in, i, out, pos, literals);
+                i += literals;
+                pos += literals;
+                if (i >= end) {
+                    break;
+                }
+                int distance = (in[i] & 0xff) | (in[i + 1] & 0xff) << 8;
+                i += 2;
+                int match = token & 15;
+                if (match == 15) {
+                    int b;
+                    do {
+                        b = in[i] & 0xff;
+                        i += 1;
+                        match += b;
+                    } while (b == 255);
+                }
+                match += MIN_MATCH;
+                int from = pos - distance;
+                if (distance == 0 || from < 0) {
+                    throw new IllegalArgumentException("corrupt object");
+                }
+                if (distance >= match) {
+                    System.arraycopy(out, from, out, pos, match);
+                } else {
+                    for (int k = 0; k < match; k += 1) {
+                        out[pos + k] = out[from + k];
+                    }
+                }
+                pos += match;
+            }
+        } catch (IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt object");
+        }
+        if (pos != last) {
+            throw new IllegalArgumentException("corrupt object");
+        }
+    }
+
+    /** A stream that writes what is written to it as FAST blocks. */
+    private static class FastOutputStream extends OutputStream {
+
+        /** Where the blocks go. */
+        private OutputStream _out;
+
+        /** The block being filled. */
+        private byte[] _block = new byte[BLOCK];
+
+        /** Bytes in _block. */
+        private int _length;
+
+        /** Scratch space for compress. */
+        private int[] _table = new int[1 << HASH_BITS];
+
+        /** Scratch space for compress. */
+        private byte[] _coded = new byte[bound(BLOCK)];
+
+        /** The compressed block, on its way to _out. */
+        private ByteArrayOutputStream _compressed =
+            new ByteArrayOutputStream(bound(BLOCK) + 8);
+
+        /** A stream writing blocks to OUT. */
+        FastOutputStream(OutputStream out) {
+            _out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, BLOCK - _length);
+                System.arraycopy(b, off, _block, _length, n);
+                _length += n;
+                off += n;
+                len -= n;
+                if (_length == BLOCK) {
+                    flushBlock();
+                }
+            }
+        }
+
+        /** Compresses the bytes in _block and writes them to _out. */
+        private void flushBlock() throws IOException {
+            compress(_block, 0, _length, _table, _coded, _compressed);
+            _compressed.writeTo(_out);
+            _compressed.reset();
+            _length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_length > 0) {
+                flushBlock();
+            }
+            _out.close();
+        }
+    }
+
+    /** A stream of the bytes held in FAST blocks. */
+    private static class FastInputStream extends InputStream {
+
+        /** Where the blocks come from. */
+        private DataInputStream _in;
+
+        /** The stored bytes of the current block. */
+        private byte[] _coded = new byte[bound(BLOCK)];
+
+        /** The current block. */
+        private byte[] _block = new byte[BLOCK];
+
+        /** Bytes in _block, and how many of them were read. */
+        private int _length, _pos;
+
+        /** A stream of the blocks in IN. */
+        FastInputStream(InputStream in) {
+            _in = new DataInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (_pos == _length && !next()) {
+                return -1;
+            }
+            int n = Math.min(len, _length - _pos);
+            System.arraycopy(_block, _pos, b, off, n);
+            _pos += n;
+            return n;
+        }
+
+        /** Reads the next block, returning false at the end of the
+         *  stream. */
+        private boolean next() throws IOException {
+            int length;
+            try {
+                length = _in.readInt();
+            } catch (EOFException excp) {
+                return false;
+            }
+            int coded = _in.readInt();
+            if (length > BLOCK || coded > _coded.length || coded < 0) {
+                throw new IllegalArgumentException("corrupt object");
+            }
+            _in.readFully(_coded, 0, coded);
+            expand(_coded, 0, coded, _block, 0, length);
+            _length = length;
+            _pos = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+}
@@ -0,0 +1,607 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/** The commit graph: one fixed-width record per commit holding its id,
+ *  the record numbers of its parents, its timestamp, its generation
+ *  number and the offset of its message in a separate message file.
+ *  Records are appended in commit order, so a parent always comes
+ *  before its children, and walking history follows integer indices
+ *  through a memory-mapped file instead of reading commit objects.
+ *  <p>
+ *  A second file lists the ids of the first records in sorted order
+ *  with their record numbers, so an id or a unique prefix of one is
+ *  found by binary search. Records appended since it was written are
+ *  checked one by one; once there are more than TAIL_LIMIT of them
+ *  the sorted file is rewritten.
+ *  <p>
+ *  Both files are only ever appended to, and each append is synced
+ *  with the objects of its command, before any ref names the commits it
+ *  adds. A crash can still leave a torn record or message at the end;
+ *  open reads only the whole records whose messages are complete, and
+ *  the next append overwrites the rest. If a branch names a commit the
+ *  graph lacks, the graph is rebuilt from the stored commits.
+ *  @author Cassandra Calciano
+ */
+class CommitGraph {
+
+    /** Marks the start of a commit-graph file. */
+    private static final int MAGIC = 0x47434752;
+
+    /** Version of the graph format written by this class. */
+    private static final int VERSION = 1;
+
+    /** Bytes before the first record. */
+    private static final int HEADER = 8;
+
+    /** Bytes in a raw SHA-1. */
+    static final int ID_BYTES = 20;
+
+    /** Bytes in one record: id, two parents, generation, timestamp and
+     *  message offset. */
+    static final int RECORD = ID_BYTES + 4 + 4 + 4 + 8 + 8;
+
+    /** Parent index of a record with no such parent, and the result of
+     *  looking up an id that is not in the graph. */
+    static final int NONE = -1;
+
+    /** The result of looking up a prefix of more than one id. */
+    static final int AMBIGUOUS = -2;
+
+    /** Bytes in one record of the sorted id file. */
+    private static final int ID_RECORD = ID_BYTES + 4;
+
+    /** Most records left out of the sorted id file before it is
+     *  rewritten. */
+    private static final int TAIL_LIMIT = 256;
+
+    /** The mapped sorted id file, after its header. */
+    private ByteBuffer _ids;
+
+    /** Number of records in _ids. */
+    private int _sorted;
+
+    /** True if _ids was read from a sorted id file that fits the
+     *  graph. */
+    private boolean _indexed;
+
+    /** The mapped records. */
+    private ByteBuffer _records;
+
+    /** The mapped messages. */
+    private ByteBuffer _messages;
+
+    /** Number of records. */
+    private int _size;
+
+    /** A graph over RECORDS and MESSAGES, less any records at the end
+     *  that are torn or whose messages are. */
+    private CommitGraph(ByteBuffer records, ByteBuffer messages) {
+        _records = records;
+        _messages = messages;
+        _size = Math.max(0, (records.limit() - HEADER) / RECORD);
+        while (_size > 0 && messagesEnd() > messages.limit()) {
+            _size -= 1;
+        }
+        _ids = ByteBuffer.allocate(0);
+    }
+
+    /** Maps the commit graph of the repository, first building it from
+     *  the stored commits if it does not exist or lacks the commit of a
+     *  branch.
+     * @return the graph */
+    static CommitGraph open() {
+        CommitGraph kept = (CommitGraph) Daemon.kept(Main.GRAPH);
+        if (kept != null) {
+            return kept;
+        }
+        CommitGraph graph = current();
+        if (graph == null) {
+            graph = rebuilt();
+        }
+        Daemon.keep(graph, Main.GRAPH, Main.MESSAGES, Main.COMMIT_IDS);
+        return graph;
+    }
+
+    /** Returns the graph held in the graph files, or null if they are
+     *  missing or lack the commit of a branch. A branch may have moved
+     *  after its commit was appended and the files were mapped, so they
+     *  are mapped once more before giving up. */
+    private static CommitGraph current() {
+        for (int tries = 0; tries < 2; tries += 1) {
+            if (Main.GRAPH.length() < HEADER) {
+                return null;
+            }
+            CommitGraph graph = map();
+            if (graph.hasBranches()) {
+                return graph;
+            }
+        }
+        return null;
+    }
+
+    /** Rebuilds the graph files under the staging lock, so that commands
+     *  that take no lock never rewrite them while another command
+     *  appends, and returns the graph. Another command may have rebuilt
+     *  the files while this one waited for the lock. */
+    private static CommitGraph rebuilt() {
+        Locks.Held held = Locks.staging();
+        try {
+            CommitGraph graph = current();
+            if (graph == null) {
+                rebuild();
+                graph = map();
+            }
+            return graph;
+        } finally {
+            held.close();
+        }
+    }
+
+    /** Returns the graph held in the graph files. */
+    private static CommitGraph map() {
+        ByteBuffer records = map(Main.GRAPH);
+        if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw Utils.error("Unrecognized commit-graph format.");
+        }
+        CommitGraph graph = new CommitGraph(records, map(Main.MESSAGES));
+        if (Main.COMMIT_IDS.exists()) {
+            ByteBuffer ids = map(Main.COMMIT_IDS);
+            int count = ids.limit() >= HEADER + 4 ? ids.getInt(8) : -1;
+            if (count >= 0 && count <= graph._size
+                    && ids.getInt(0) == MAGIC && ids.getInt(4) == VERSION
+                    && ids.limit() >= HEADER + 4 + count * ID_RECORD) {
+                graph._sorted = count;
+                graph._ids = ids.position(HEADER + 4).slice();
+                graph._indexed = true;
+            }
+        }
+        return graph;
+    }
+
+    /** Returns true if the commit of every branch is in this graph. */
+    private boolean hasBranches() {
+        List<String> branches = Utils.plainFilenamesIn(Main.BRANCHES);
+        if (branches == null) {
+            return true;
+        }
+        for (String branch : branches) {
+            String id = Utils.readContentsAsString(
+                    Utils.join(Main.BRANCHES, branch));
+            if (indexOf(id) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the offset just past the message of the last record in
+     *  the message file, or 0 if there are no records. */
+    private long messagesEnd() {
+        if (_size == 0) {
+            return 0;
+        }
+        long offset = _records.getLong(at(_size - 1) + ID_BYTES + 20);
+        if (offset < 0 || offset + 4 > _messages.limit()) {
+            return Long.MAX_VALUE;
+        }
+        return offset + 4 + _messages.getInt((int) offset);
+    }
+
+    /** Returns the contents of FILE mapped read-only. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns the position of record I. */
+    private int at(int i) {
+        return HEADER + i * RECORD;
+    }
+
+    /** Returns the id of commit I. */
+    String id(int i) {
+        return ObjectId.of(_records, at(i)).toString();
+    }
+
+    /** Returns the commits from commit I back along first parents,
+     *  newest first, read one at a time as the iterator advances. */
+    PrimitiveIterator.OfInt firstParents(int i) {
+        return new PrimitiveIterator.OfInt() {
+            private int _next = i;
+
+            @Override
+            public boolean hasNext() {
+                return _next != NONE;
+            }
+
+            @Override
+            public int nextInt() {
+                if (_next == NONE) {
+                    throw new NoSuchElementException();
+                }
+                int result = _next;
+                _next = parent(result);
+                return result;
+            }
+        };
+    }
+
+    /** Returns every commit of the graph, in the order they were added. */
+    PrimitiveIterator.OfInt all() {
+        return IntStream.range(0, _size).iterator();
+    }
+
+    /** Returns the index of the first parent of commit I, or NONE. */
+    int parent(int i) {
+        return _records.getInt(at(i) + ID_BYTES);
+    }
+
+    /** Returns the index of the second parent of commit I, or NONE. */
+    int parent2(int i) {
+        return _records.getInt(at(i) + ID_BYTES + 4);
+    }
+
+    /** Returns the generation number of commit I: one more than the
+     *  largest generation among its parents, and 1 for a root. */
+    int generation(int i) {
+        return _records.getInt(at(i) + ID_BYTES + 8);
+    }
+
+    /** Returns the time of commit I, in milliseconds. */
+    long time(int i) {
+        return _records.getLong(at(i) + ID_BYTES + 12);
+    }
+
+    /** Returns the message of commit I. */
+    String message(int i) {
+        int offset = (int) _records.getLong(at(i) + ID_BYTES + 20);
+        byte[] text = new byte[_messages.getInt(offset)];
+        _messages.get(offset + 4, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the index of a best common ancestor of commits A and B:
+     *  one that is not an ancestor of any other common ancestor. The
+     *  walk goes back from both commits at once, always taking the
+     *  waiting commit of highest generation and marking its parents
+     *  with the sides it was reached from. Every descendant of a commit
+     *  has a higher generation, so a commit is taken only after all its
+     *  marks are known, and the first one reached from both sides is
+     *  the answer. Only commits newer than the answer are visited.
+     *  Returns NONE if A and B have no common ancestor. */
+    int mergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        HashMap<Integer, Integer> sides = new HashMap<>();
+        PriorityQueue<Integer> waiting = new PriorityQueue<>(
+            (x, y) -> Integer.compare(generation(y), generation(x)));
+        sides.put(a, 1);
+        sides.put(b, 2);
+        waiting.add(a);
+        waiting.add(b);
+        while (!waiting.isEmpty()) {
+            int next = waiting.poll();
+            int side = sides.get(next);
+            if (side == 3) {
+                return next;
+            }
+            for (int parent : new int[] {parent(next), parent2(next)}) {
+                if (parent == NONE) {
+                    continue;
+                }
+                Integer old = sides.put(parent,
+                        sides.getOrDefault(parent, 0) | side);
+                if (old == null) {
+                    waiting.add(parent);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the index of the commit with id ID, or NONE. */
+    int indexOf(String id) {
+        try {
+            return indexOf(ObjectId.parse(id));
+        } catch (IllegalArgumentException excp) {
+            return NONE;
+        }
+    }
+
+    /** Returns the index of the commit with id ID, or NONE. */
+    int indexOf(ObjectId id) {
+        int lo = 0;
+        int hi = _sorted - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = id.compareTo(_ids, mid * ID_RECORD);
+            if (cmp > 0) {
+                lo = mid + 1;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                return _ids.getInt(mid * ID_RECORD + ID_BYTES);
+            }
+        }
+        for (int i = _sorted; i < _size; i += 1) {
+            if (id.matches(_records, at(i))) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the index of the one commit whose id starts with the
+     *  hexadecimal numeral PREFIX, NONE if there is no such commit, or
+     *  AMBIGUOUS if there is more than one. */
+    int resolve(String prefix) {
+        String want = prefix.toLowerCase(Locale.ROOT);
+        if (want.isEmpty() || want.length() > Utils.UID_LENGTH
+                || !want.matches("[0-9a-f]+")) {
+            return NONE;
+        }
+        StringBuilder low = new StringBuilder(want);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        byte[] bound = Utils.fromHex(low.toString());
+        byte[] have = new byte[ID_BYTES];
+        int lo = 0;
+        int hi = _sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            _ids.get(mid * ID_RECORD, have);
+            if (Arrays.compareUnsigned(have, bound) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int found = NONE;
+        for (int k = lo; k < _sorted; k += 1) {
+            _ids.get(k * ID_RECORD, have);
+            if (!Utils.toHex(have).startsWith(want)) {
+                break;
+            }
+            if (found != NONE) {
+                return AMBIGUOUS;
+            }
+            found = _ids.getInt(k * ID_RECORD + ID_BYTES);
+        }
+        for (int i = _sorted; i < _size; i += 1) {
+            if (id(i).startsWith(want)) {
+                if (found != NONE) {
+                    return AMBIGUOUS;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /** Rewrites the sorted id file to cover every record of this graph,
+     *  if more than TAIL_LIMIT records are missing from it or it does
+     *  not fit the graph. */
+    private void sortIds() {
+        if (_size - _sorted <= TAIL_LIMIT && _indexed) {
+            return;
+        }
+        Integer[] order = new Integer[_size];
+        ObjectId[] ids = new ObjectId[_size];
+        for (int i = 0; i < _size; i += 1) {
+            order[i] = i;
+            ids[i] = ObjectId.of(_records, at(i));
+        }
+        Arrays.sort(order, (x, y) -> ids[x].compareTo(ids[y]));
+        ByteBuffer out = ByteBuffer.allocate(HEADER + 4 + _size * ID_RECORD);
+        out.putInt(MAGIC).putInt(VERSION).putInt(_size);
+        for (int i : order) {
+            out.put(ids[i].bytes()).putInt(i);
+        }
+        Main.writeRef(Main.COMMIT_IDS, out.array());
+        Daemon.forget(Main.GRAPH);
+    }
+
+    /** Adds COMMIT, which must already be stored and whose parents must
+     *  already be in the graph, to the end of the graph files. */
+    static void append(Commits commit) {
+        ArrayList<Commits> one = new ArrayList<>();
+        one.add(commit);
+        append(one);
+    }
+
+    /** Adds COMMITS, which must already be stored and be in an order in
+     *  which every parent comes before its children, to the end of the
+     *  graph files in one write. */
+    static void append(List<Commits> commits) {
+        if (Main.GRAPH.length() < HEADER) {
+            rebuild();
+            return;
+        }
+        write(open(), commits, false);
+        open().sortIds();
+    }
+
+    /** Writes a new graph of every stored commit. Record numbers may
+     *  change, so the message index is dropped, to be rebuilt by its
+     *  next update. */
+    static void rebuild() {
+        HashMap<String, Commits> all = new HashMap<>();
+        for (String name : ObjectStore.list(ObjectStore.COMMIT)) {
+            all.put(name, Commits.load(name));
+        }
+        ArrayList<Commits> order = new ArrayList<>();
+        HashSet<String> placed = new HashSet<>();
+        for (String id : all.keySet()) {
+            place(id, all, placed, order);
+        }
+        write(new CommitGraph(ByteBuffer.allocate(HEADER),
+                ByteBuffer.allocate(0)), order, true);
+        Main.COMMIT_IDS.delete();
+        Main.MESSAGE_INDEX.delete();
+        Main.MESSAGE_LOG.delete();
+        open().sortIds();
+    }
+
+    /** Adds the commit named ID to ORDER after all of its ancestors in
+     *  ALL, skipping those already PLACED. */
+    private static void place(String id, HashMap<String, Commits> all,
+                              HashSet<String> placed,
+                              List<Commits> order) {
+        ArrayList<String> stack = new ArrayList<>();
+        stack.add(id);
+        while (!stack.isEmpty()) {
+            String top = stack.get(stack.size() - 1);
+            Commits commit = all.get(top);
+            if (placed.contains(top) || commit == null) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            String parent = commit.getParentSha();
+            if (parent != null && !placed.contains(parent)
+                    && all.containsKey(parent)) {
+                stack.add(parent);
+                continue;
+            }
+            String parent2 = commit.getSecondParentSha();
+            if (parent2 != null && !placed.contains(parent2)
+                    && all.containsKey(parent2)) {
+                stack.add(parent2);
+                continue;
+            }
+            placed.add(top);
+            order.add(commit);
+            stack.remove(stack.size() - 1);
+        }
+    }
+
+    /** Writes COMMITS, in order, after the records of GRAPH, over
+     *  whatever follows them in the graph files, or replacing the files
+     *  if FRESH. Commits already in GRAPH, as when an import is run
+     *  again, are skipped. */
+    private static void write(CommitGraph graph, List<Commits> commits,
+                              boolean fresh) {
+        HashMap<ObjectId, Integer> added = new HashMap<>();
+        ArrayList<Integer> generations = new ArrayList<>();
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream messageBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        DataOutputStream messages = new DataOutputStream(messageBytes);
+        long offset = graph.messagesEnd();
+        try {
+            if (fresh) {
+                records.writeInt(MAGIC);
+                records.writeInt(VERSION);
+            }
+            for (Commits commit : commits) {
+                ObjectId id = ObjectId.parse(commit.getCommitID());
+                if (added.containsKey(id) || graph.indexOf(id) != NONE) {
+                    continue;
+                }
+                int index = graph._size + added.size();
+                int parent = lookup(graph, added, commit.getParentSha());
+                int parent2 = lookup(graph, added,
+                        commit.getSecondParentSha());
+                int generation = 1 + Math.max(
+                        generationOf(graph, generations, parent),
+                        generationOf(graph, generations, parent2));
+                byte[] message =
+                        commit.getMessage().getBytes(StandardCharsets.UTF_8);
+                records.write(id.bytes());
+                records.writeInt(parent);
+                records.writeInt(parent2);
+                records.writeInt(generation);
+                records.writeLong(commit.getCommitDate().getTime());
+                records.writeLong(offset + messages.size());
+                messages.writeInt(message.length);
+                messages.write(message);
+                added.put(id, index);
+                generations.add(generation);
+            }
+            records.close();
+            messages.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        appendTo(Main.MESSAGES, messageBytes.toByteArray(),
+                fresh ? 0 : offset);
+        appendTo(Main.GRAPH, recordBytes.toByteArray(),
+                fresh ? 0 : graph.at(graph._size));
+    }
+
+    /** Returns the generation of commit I, which is either in GRAPH or
+     *  is one of those being added, whose GENERATIONS are given, or 0 if
+     *  I is NONE. */
+    private static int generationOf(CommitGraph graph,
+                                    List<Integer> generations, int i) {
+        if (i == NONE) {
+            return 0;
+        } else if (i >= graph._size) {
+            return generations.get(i - graph._size);
+        }
+        return graph.generation(i);
+    }
+
+    /** Returns the index of the commit named ID, looking first among
+     *  those ADDED in this batch and then in GRAPH. */
+    private static int lookup(CommitGraph graph,
+                              HashMap<ObjectId, Integer> added, String id) {
+        if (id == null) {
+            return NONE;
+        }
+        ObjectId key = ObjectId.parse(id);
+        Integer index = added.get(key);
+        if (index != null) {
+            return index;
+        }
+        return graph.indexOf(key);
+    }
+
+    /** Writes BYTES to FILE at offset END, cutting off whatever was
+     *  there, and notes FILE for the journal to sync. */
+    private static void appendTo(File file, byte[] bytes, long end) {
+        Daemon.forget(Main.GRAPH);
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(end);
+            out.position(end);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.wrote(file);
+    }
+}
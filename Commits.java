@@ -1,17 +1,38 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
-import java.util.HashMap;
-
-
-/** Commit object.
+import java.util.Map;
+
+
+/** Commit object. The files of a commit are kept in a Tree, so a
+ *  commit only names the root tree and stays the same size however
+ *  many files are tracked.
+ *  <p>
+ *  A commit is stored as a version byte, the raw root tree id, a
+ *  parent count and the raw parent ids, the date in milliseconds, and
+ *  the length of the message followed by its UTF-8 bytes. Every commit
+ *  has exactly one encoding, and its id is the SHA-1 of it. Commits
+ *  written by Java serialization before this encoding existed can
+ *  still be read; migrate rewrites them, and converts the commits of
+ *  the first version, which named files instead of a tree.
  *  @author Cassandra Calciano
  */
 public class Commits implements Serializable {
 
-    /** Hashmap that saves the fileName and blob version. */
-    private HashMap _files = new HashMap<String, String>();
+    /** Fixes the stream format of commits across builds. */
+    private static final long serialVersionUID = 2L;
+
+    /** Version of the encoding written by encode. */
+    private static final byte VERSION = 1;
+
+    /** First byte of a commit written by Java serialization. */
+    private static final byte LEGACY = (byte) 0xac;
+
+    /** SHA-1 of the root Tree of this commit. */
+    private String _treeSha = new String();
 
     /** Commit message. */
     private String _message = new String();
@@ -25,21 +46,145 @@ public class Commits implements Serializable {
     /** Folder to hold all branches in. */
     private String _parentSha = new String();
 
+    /** Sha of the branch merged into this commit, or null if this is
+     *  not a merge commit. */
+    private String _secondParentSha;
+
     /** Constructs a commit object.
      * @param message a message
-     * @param toCommit a hashmap to commit
+     * @param treeSha the sha of the root tree to commit
      * @param parentSha a string of sha */
-    public Commits(String message, HashMap toCommit, String parentSha) {
+    public Commits(String message, String treeSha, String parentSha) {
+        this(message, treeSha, parentSha, null);
+    }
+
+    /** Constructs a merge commit object.
+     * @param message a message
+     * @param treeSha the sha of the root tree to commit
+     * @param parentSha a string of sha
+     * @param secondParentSha the sha of the merged-in commit, or null */
+    public Commits(String message, String treeSha, String parentSha,
+                   String secondParentSha) {
+        this(message, treeSha, parentSha, secondParentSha, new Date());
+    }
+
+    /** Constructs a commit object made at a given time, as imported.
+     * @param message a message
+     * @param treeSha the sha of the root tree to commit
+     * @param parentSha a string of sha, or null
+     * @param secondParentSha the sha of the merged-in commit, or null
+     * @param date the time the commit was made */
+    Commits(String message, String treeSha, String parentSha,
+            String secondParentSha, Date date) {
         _parentSha = parentSha;
-        _files = toCommit;
+        _secondParentSha = secondParentSha;
+        _treeSha = treeSha;
         _message = message;
-        _commitDate = new Date();
-        _commitID = Utils.sha1(Utils.serialize(this));
+        _commitDate = date;
+        _commitID = Utils.sha1(encode());
+    }
+
+    /** A commit to be filled in by decode. */
+    private Commits() {
+    }
+
+    /** Reads the commit named ID from the object store.
+     * @return the commit */
+    static Commits load(String id) {
+        return ObjectStore.load(ObjectStore.COMMIT, id, bytes -> {
+            if (isLegacy(bytes)) {
+                if (Baseline.present()) {
+                    throw Utils.error("This repository was made by an "
+                            + "older gitlet; run gitlet migrate.");
+                }
+                return Utils.deserialize(bytes, Commits.class);
+            }
+            return decode(ByteBuffer.wrap(bytes), id);
+        });
+    }
+
+    /** Returns true if BYTES hold a commit written by Java
+     *  serialization. */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == LEGACY;
+    }
+
+    /** Writes this commit to the object store. */
+    void save() {
+        ObjectStore.write(ObjectStore.COMMIT, _commitID, encode());
+    }
+
+    /** Returns the stored form of this commit. */
+    byte[] encode() {
+        byte[] message = _message.getBytes(StandardCharsets.UTF_8);
+        int parents = _parentSha == null ? 0
+                : _secondParentSha == null ? 1 : 2;
+        ByteBuffer buf = ByteBuffer.allocate(1 + CommitGraph.ID_BYTES
+                + 1 + parents * CommitGraph.ID_BYTES + 8 + 4
+                + message.length);
+        buf.put(VERSION).put(Utils.fromHex(_treeSha)).put((byte) parents);
+        if (parents > 0) {
+            buf.put(Utils.fromHex(_parentSha));
+        }
+        if (parents > 1) {
+            buf.put(Utils.fromHex(_secondParentSha));
+        }
+        buf.putLong(_commitDate.getTime());
+        buf.putInt(message.length).put(message);
+        return buf.array();
     }
 
-    /** Returns a Hashmap of file names and their sha'd blobs. */
-    public HashMap<String, String> files() {
-        return _files;
+    /** Returns the commit named ID whose stored form starts at the
+     *  position of BUF. Fields are read straight out of BUF. */
+    static Commits decode(ByteBuffer buf, String id) {
+        int pos = buf.position();
+        if (buf.get(pos) != VERSION) {
+            throw Utils.error("Unrecognized commit format.");
+        }
+        Commits commit = new Commits();
+        commit._commitID = id;
+        commit._treeSha = hexAt(buf, pos + 1);
+        pos += 1 + CommitGraph.ID_BYTES;
+        int parents = buf.get(pos);
+        pos += 1;
+        commit._parentSha = parents > 0 ? hexAt(buf, pos) : null;
+        commit._secondParentSha = parents > 1
+                ? hexAt(buf, pos + CommitGraph.ID_BYTES) : null;
+        pos += parents * CommitGraph.ID_BYTES;
+        commit._commitDate = new Date(buf.getLong(pos));
+        int length = buf.getInt(pos + 8);
+        byte[] message = new byte[length];
+        buf.get(pos + 12, message);
+        commit._message = new String(message, StandardCharsets.UTF_8);
+        return commit;
+    }
+
+    /** Returns the raw id at position POS of BUF in hexadecimal. */
+    private static String hexAt(ByteBuffer buf, int pos) {
+        byte[] id = new byte[CommitGraph.ID_BYTES];
+        buf.get(pos, id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns this commit in the current encoding, with its parents
+     *  renamed by RENAMED where they appear in it. The result is this
+     *  commit itself if nothing about its stored form changes. */
+    Commits migrated(Map<String, String> renamed) {
+        Commits result = new Commits();
+        result._treeSha = _treeSha;
+        result._message = _message;
+        result._commitDate = _commitDate;
+        result._parentSha = renamed.getOrDefault(_parentSha, _parentSha);
+        result._secondParentSha = renamed.getOrDefault(_secondParentSha,
+                _secondParentSha);
+        result._commitID = Utils.sha1(result.encode());
+        return result._commitID.equals(_commitID) ? this : result;
+    }
+
+    /** Outputs the sha of the root tree.
+     * @return _treeSha */
+    public String getTreeSha() {
+        return _treeSha;
     }
 
     /** Outputs the message of a commit.
@@ -66,9 +211,16 @@ public class Commits implements Serializable {
         return _parentSha;
     }
 
+    /** Outputs the sha of the merged-in parent.
+     * @return the second parent sha, or null. */
+    public String getSecondParentSha() {
+        return _secondParentSha;
+    }
+
     /** Used in init to initialize the Date. */
     public void setCommitFirstDate() {
         _commitDate = new Date(0);
+        _commitID = Utils.sha1(encode());
     }
 
 }
@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The gitlet daemon: one long-running JVM per repository that serves
+ *  commands over a Unix domain socket in .gitlet, so a command pays for
+ *  neither JVM startup nor reading the index and the commit graph. The
+ *  index and graph are kept in memory between commands, each with the
+ *  stat data of the files it was read from. Before each command the
+ *  daemon drains a WatchService on .gitlet, and drops anything whose
+ *  files changed since it was kept.
+ *  <p>
+ *  A request is the arguments of the command, each ended by a NUL byte,
+ *  up to the end of the stream; the reply is the output of the
+ *  command. Any client that can write to a socket will do, for instance
+ *      printf 'status\0' | nc -NU .gitlet/daemon.sock
+ *  and Main forwards every command but fast-import, which reads
+ *  standard input, to a running daemon by itself.
+ *  @author Cassandra Calciano
+ */
+class Daemon {
+
+    /** True in the daemon process, which is the only one that caches. */
+    private static boolean _running;
+
+    /** Values kept between commands, by the first file they were read
+     *  from. */
+    private static final Map<File, Kept> KEPT = new ConcurrentHashMap<>();
+
+    /** Returns the value kept for FILE, or null if there is none or this
+     *  is not the daemon. */
+    static Object kept(File file) {
+        Kept kept = KEPT.get(file);
+        return kept == null ? null : kept._value;
+    }
+
+    /** Keeps VALUE, which was read from FILES, until one of FILES
+     *  changes. Does nothing unless this is the daemon. */
+    static void keep(Object value, File... files) {
+        if (_running) {
+            KEPT.put(files[0], new Kept(value, files));
+        }
+    }
+
+    /** Drops the value kept for FILE, if any. */
+    static void forget(File file) {
+        KEPT.remove(file);
+    }
+
+    /** Sends ARGS to the daemon of this repository, if one is running,
+     *  and prints its reply.
+     * @return true if the daemon ran the command */
+    static boolean forward(String... args) {
+        if (_running || !Main.DAEMON_SOCKET.exists()
+                || args[0].equals("daemon") && args.length == 1
+                || args[0].equals("fast-import")) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(Main.DAEMON_SOCKET.toPath()))) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            for (String arg : args) {
+                request.writeBytes(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(request.toByteArray());
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.shutdownOutput();
+            ByteBuffer reply = ByteBuffer.allocate(1 << 16);
+            while (channel.read(reply) >= 0) {
+                System.out.write(reply.array(), 0, reply.position());
+                reply.clear();
+            }
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Serves commands until told "daemon stop". */
+    static void serve() {
+        if (!Main.GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        if (forward("daemon", "ping")) {
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        Main.DAEMON_SOCKET.delete();
+        Path socket = Main.DAEMON_SOCKET.toPath();
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             WatchService watcher =
+                     FileSystems.getDefault().newWatchService()) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            watch(watcher, Main.GIT);
+            watch(watcher, Main.BRANCHES);
+            watch(watcher, Main.PACKS);
+            _running = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    Main.DAEMON_SOCKET.delete()));
+            boolean stop = false;
+            while (!stop) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = request(client);
+                    drain(watcher);
+                    stop = args.length == 2 && args[0].equals("daemon")
+                            && args[1].equals("stop");
+                    byte[] reply = run(args);
+                    ByteBuffer buf = ByteBuffer.wrap(reply);
+                    while (buf.hasRemaining()) {
+                        client.write(buf);
+                    }
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _running = false;
+            KEPT.clear();
+            Main.DAEMON_SOCKET.delete();
+        }
+    }
+
+    /** Returns the arguments of the request read from CLIENT. */
+    private static String[] request(SocketChannel client)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+        ArrayList<String> args = new ArrayList<>();
+        while (client.read(buf) >= 0) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (b != 0) {
+                    bytes.write(b);
+                } else {
+                    args.add(bytes.toString(StandardCharsets.UTF_8));
+                    bytes.reset();
+                }
+            }
+            buf.clear();
+        }
+        if (bytes.size() > 0) {
+            args.add(bytes.toString(StandardCharsets.UTF_8));
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Runs the command ARGS and returns what it printed. */
+    private static byte[] run(String[] args) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream console = System.out;
+        PrintStream out = new PrintStream(output, true,
+                StandardCharsets.UTF_8);
+        System.setOut(out);
+        try {
+            if (args.length == 0) {
+                Main.main();
+            } else if (args[0].equals("daemon")) {
+                if (args.length == 2 && args[1].equals("stop")) {
+                    System.out.println("Daemon stopped.");
+                }
+            } else {
+                Main.main(args);
+            }
+        } catch (RuntimeException excp) {
+            // What the failed command changed in memory never reached
+            // disk, so nothing kept can be trusted.
+            KEPT.clear();
+            out.println(excp.getMessage());
+        } finally {
+            System.setOut(console);
+        }
+        return output.toByteArray();
+    }
+
+    /** Registers DIR, if it exists, with WATCHER. */
+    private static void watch(WatchService watcher, File dir)
+        throws IOException {
+        if (dir.isDirectory()) {
+            dir.toPath().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    /** Handles every event waiting in WATCHER: drops kept values whose
+     *  files changed, and forgets the open packs if the packs or the
+     *  object format changed. */
+    private static void drain(WatchService watcher) throws IOException {
+        boolean changed = false;
+        for (WatchKey key = watcher.poll(); key != null;
+             key = watcher.poll()) {
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object name = event.context();
+                if (dir.equals(Main.PACKS.toPath())
+                        || Main.PACKS.getName().equals(String.valueOf(name))
+                        || Main.FORMAT.getName().equals(String.valueOf(name))) {
+                    ObjectStore.forget();
+                }
+                changed = true;
+            }
+            key.reset();
+        }
+        if (changed) {
+            watch(watcher, Main.PACKS);
+            KEPT.values().removeIf(kept -> !kept.current());
+        }
+    }
+
+    /** Returns the size, modification time and file key of FILE, or
+     *  null if it does not exist. */
+    private static List<Object> stamp(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return Arrays.asList(attrs.size(), attrs.lastModifiedTime(),
+                    attrs.fileKey());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** A value kept between commands, and the files it was read from as
+     *  they were when it was kept. */
+    private static class Kept {
+
+        /** The kept value. */
+        private Object _value;
+
+        /** The files _value was read from. */
+        private File[] _files;
+
+        /** The stamps of _files when _value was kept. */
+        private List<List<Object>> _stamps = new ArrayList<>();
+
+        /** Keeps VALUE, read from FILES. */
+        Kept(Object value, File... files) {
+            _value = value;
+            _files = files;
+            for (File file : files) {
+                _stamps.add(stamp(file));
+            }
+        }
+
+        /** Returns true if none of the files has changed. */
+        boolean current() {
+            for (int i = 0; i < _files.length; i += 1) {
+                if (!Objects.equals(_stamps.get(i), stamp(_files[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs between two versions of a file, printed as unified diffs
+ *  with CONTEXT lines of context. Each side is read once, as a stream,
+ *  and every distinct line is replaced by a small int, so the rest of
+ *  the work compares ints. The lines the two sides start and end with
+ *  are set aside first, and so are lines that appear on only one side,
+ *  which cannot be part of any common subsequence. What is left goes to
+ *  Myers' O(ND) algorithm in its linear-space form: find the middle
+ *  snake of the shortest edit script by searching from both ends at
+ *  once, and diff the parts before and after it.
+ *  @author Cassandra Calciano
+ */
+class Diff {
+
+    /** Lines of context around each change. */
+    static final int CONTEXT = 3;
+
+    /** Fewest edits searched for before bisect settles for the point
+     *  that got furthest, as GNU diff does, so that two long files with
+     *  little in common cost about N * COST_MIN steps rather than N^2.
+     *  The diff is then still correct, but may not be the shortest. */
+    private static final int COST_MIN = 4096;
+
+    /** Bytes read from a side at a time. */
+    private static final int BUFFER = 1 << 16;
+
+    /** The bytes of the distinct lines read so far, one after another.
+     *  A line keeps its newline, so a last line without one is distinct
+     *  from the same line with it. */
+    private byte[] _text = new byte[BUFFER];
+
+    /** Where each distinct line starts in _text, by id, and after the
+     *  last of them, where the next one would start. */
+    private int[] _starts = new int[1 << 10];
+
+    /** The hash of each distinct line, by id. */
+    private int[] _hashes = new int[1 << 10];
+
+    /** The number of distinct lines read so far. */
+    private int _count;
+
+    /** Open-addressed hash table of line ids plus one, or 0 for empty
+     *  slots. It is kept at most half full. */
+    private int[] _table = new int[1 << 11];
+
+    /** The lines of the old and the new version, as ids. */
+    private int[] _a, _b;
+
+    /** Which lines of _a are deleted, and which lines of _b inserted. */
+    private boolean[] _deleted, _inserted;
+
+    /** Writes to OUT the diff of the file PATH from the contents of FROM
+     *  to those of TO, either of which may be null for a file that does
+     *  not exist, and closes both. Writes nothing if they hold the same
+     *  lines. */
+    static void write(String path, InputStream from, InputStream to,
+                      Writer out) throws IOException {
+        Diff diff = new Diff();
+        int[] a = diff.read(from);
+        int[] b = null;
+        if (a != null) {
+            b = diff.read(to);
+        } else if (to != null) {
+            to.close();
+        }
+        String oldName = from == null ? "/dev/null" : "a/" + path;
+        String newName = to == null ? "/dev/null" : "b/" + path;
+        if (a == null || b == null) {
+            out.write("Binary files " + oldName + " and " + newName
+                    + " differ\n");
+            return;
+        }
+        diff._a = a;
+        diff._b = b;
+        diff._deleted = new boolean[a.length];
+        diff._inserted = new boolean[b.length];
+        diff.compare();
+        ArrayList<int[]> blocks = diff.blocks();
+        if (blocks.isEmpty()) {
+            return;
+        }
+        out.write("--- " + oldName + "\n+++ " + newName + "\n");
+        int first = 0;
+        for (int k = 1; k <= blocks.size(); k += 1) {
+            if (k == blocks.size()
+                    || blocks.get(k)[0] - blocks.get(k - 1)[1]
+                        > 2 * CONTEXT) {
+                diff.hunk(blocks.subList(first, k), out);
+                first = k;
+            }
+        }
+    }
+
+    /** Returns the lines of IN as ids, reading it as a stream and closing
+     *  it, or null if it holds a NUL byte and so is taken to be binary.
+     *  A null IN has no lines. */
+    private int[] read(InputStream in) throws IOException {
+        if (in == null) {
+            return new int[0];
+        }
+        try (in) {
+            int[] ids = new int[1 << 10];
+            int count = 0;
+            byte[] buf = new byte[BUFFER];
+            byte[] carried = new byte[1 << 8];
+            int length = 0;
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                int start = 0;
+                for (int i = 0; i < n; i += 1) {
+                    if (buf[i] == 0) {
+                        return null;
+                    } else if (buf[i] != '\n') {
+                        continue;
+                    }
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, 2 * count);
+                    }
+                    if (length == 0) {
+                        ids[count] = id(buf, start, i + 1 - start);
+                    } else {
+                        carried = append(carried, length, buf, start,
+                                i + 1 - start);
+                        ids[count] = id(carried, 0, length + i + 1 - start);
+                        length = 0;
+                    }
+                    count += 1;
+                    start = i + 1;
+                }
+                carried = append(carried, length, buf, start, n - start);
+                length += n - start;
+            }
+            if (length > 0) {
+                ids = Arrays.copyOf(ids, count + 1);
+                ids[count] = id(carried, 0, length);
+                count += 1;
+            }
+            return Arrays.copyOf(ids, count);
+        }
+    }
+
+    /** Returns DEST, or a longer copy of it, with the LENGTH bytes of SRC
+     *  from START copied in after its first AT bytes. */
+    private static byte[] append(byte[] dest, int at, byte[] src, int start,
+                                 int length) {
+        if (at + length > dest.length) {
+            dest = Arrays.copyOf(dest, Math.max(2 * dest.length,
+                    at + length));
+        }
+        System.arraycopy(src, start, dest, at, length);
+        return dest;
+    }
+
+    /** Returns the id of the line made of the LENGTH bytes of LINE from
+     *  START, giving it a new one if it has not been read before. */
+    private int id(byte[] line, int start, int length) {
+        int hash = 1;
+        for (int i = start; i < start + length; i += 1) {
+            hash = 31 * hash + line[i];
+        }
+        hash ^= hash >>> 16;
+        int mask = _table.length - 1;
+        int slot = (hash * 0x9e3779b9) & mask;
+        for (; _table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = _table[slot] - 1;
+            if (_hashes[id] == hash
+                    && Arrays.equals(_text, _starts[id], _starts[id + 1],
+                            line, start, start + length)) {
+                return id;
+            }
+        }
+        int id = _count;
+        if (id + 2 > _starts.length) {
+            _starts = Arrays.copyOf(_starts, 2 * _starts.length);
+            _hashes = Arrays.copyOf(_hashes, 2 * _hashes.length);
+        }
+        _text = append(_text, _starts[id], line, start, length);
+        _starts[id + 1] = _starts[id] + length;
+        _hashes[id] = hash;
+        _count += 1;
+        _table[slot] = id + 1;
+        if (2 * _count > _table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /** Doubles the size of _table. */
+    private void rehash() {
+        _table = new int[2 * _table.length];
+        int mask = _table.length - 1;
+        for (int id = 0; id < _count; id += 1) {
+            int slot = (_hashes[id] * 0x9e3779b9) & mask;
+            while (_table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            _table[slot] = id + 1;
+        }
+    }
+
+    /** Marks the lines of _a deleted and of _b inserted by a shortest
+     *  edit script from _a to _b. */
+    private void compare() {
+        int aLo = 0;
+        int bLo = 0;
+        int aHi = _a.length;
+        int bHi = _b.length;
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        int[] inA = new int[_count];
+        int[] inB = new int[_count];
+        for (int i = aLo; i < aHi; i += 1) {
+            inA[_a[i]] += 1;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            inB[_b[j]] += 1;
+        }
+        int[] aKept = kept(_a, aLo, aHi, inB, _deleted);
+        int[] bKept = kept(_b, bLo, bHi, inA, _inserted);
+        int[] a = new int[aKept.length];
+        int[] b = new int[bKept.length];
+        for (int i = 0; i < a.length; i += 1) {
+            a[i] = _a[aKept[i]];
+        }
+        for (int j = 0; j < b.length; j += 1) {
+            b[j] = _b[bKept[j]];
+        }
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        new Myers(a, b, deleted, inserted).compare(0, a.length,
+                0, b.length);
+        for (int i = 0; i < a.length; i += 1) {
+            _deleted[aKept[i]] = deleted[i];
+        }
+        for (int j = 0; j < b.length; j += 1) {
+            _inserted[bKept[j]] = inserted[j];
+        }
+    }
+
+    /** Returns the indices in LO .. HI-1 of the lines of SIDE that the
+     *  other side has, which are counted in OTHER, and marks the rest in
+     *  CHANGED. */
+    private static int[] kept(int[] side, int lo, int hi, int[] other,
+                              boolean[] changed) {
+        int[] result = new int[hi - lo];
+        int count = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (other[side[i]] > 0) {
+                result[count] = i;
+                count += 1;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Returns the changed blocks, in order, each as the bounds
+     *  {aStart, aEnd, bStart, bEnd} of the lines it replaces and the
+     *  lines it inserts. */
+    private ArrayList<int[]> blocks() {
+        ArrayList<int[]> blocks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < _a.length || j < _b.length) {
+            if (i < _a.length && j < _b.length && !_deleted[i]
+                    && !_inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i;
+            int j0 = j;
+            while (i < _a.length && _deleted[i]) {
+                i += 1;
+            }
+            while (j < _b.length && _inserted[j]) {
+                j += 1;
+            }
+            blocks.add(new int[] {i0, i, j0, j});
+        }
+        return blocks;
+    }
+
+    /** Writes to OUT the hunk made of BLOCKS, with its context. */
+    private void hunk(List<int[]> blocks, Writer out)
+        throws IOException {
+        int[] first = blocks.get(0);
+        int[] last = blocks.get(blocks.size() - 1);
+        int before = Math.min(CONTEXT, first[0]);
+        int after = Math.min(CONTEXT, _a.length - last[1]);
+        int aStart = first[0] - before;
+        int bStart = first[2] - before;
+        int aEnd = last[1] + after;
+        int bEnd = last[3] + after;
+        out.write("@@ -" + range(aStart, aEnd - aStart) + " +"
+                + range(bStart, bEnd - bStart) + " @@\n");
+        int i = aStart;
+        for (int[] block : blocks) {
+            for (; i < block[0]; i += 1) {
+                line(' ', _a[i], out);
+            }
+            for (; i < block[1]; i += 1) {
+                line('-', _a[i], out);
+            }
+            for (int j = block[2]; j < block[3]; j += 1) {
+                line('+', _b[j], out);
+            }
+        }
+        for (; i < aEnd; i += 1) {
+            line(' ', _a[i], out);
+        }
+    }
+
+    /** Returns the range of LENGTH lines from the 0-based line START as
+     *  a hunk header shows it. */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /** Writes the line with ID to OUT, after MARK. */
+    private void line(char mark, int id, Writer out) throws IOException {
+        int start = _starts[id];
+        int end = _starts[id + 1];
+        out.write(mark);
+        out.write(new String(_text, start, end - start,
+                StandardCharsets.UTF_8));
+        if (_text[end - 1] != '\n') {
+            out.write("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Myers' linear-space diff of two arrays of line ids. */
+    private static class Myers {
+
+        /** The old and new lines. */
+        private final int[] _a, _b;
+
+        /** Marks for the lines of _a deleted and of _b inserted. */
+        private final boolean[] _deleted, _inserted;
+
+        /** A diff that marks the changes from A to B in DELETED and
+         *  INSERTED. */
+        Myers(int[] a, int[] b, boolean[] deleted, boolean[] inserted) {
+            _a = a;
+            _b = b;
+            _deleted = deleted;
+            _inserted = inserted;
+        }
+
+        /** Marks a shortest edit script from _a[ALO .. AHI-1] to
+         *  _b[BLO .. BHI-1]. */
+        void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi) {
+                Arrays.fill(_inserted, bLo, bHi, true);
+            } else if (bLo == bHi) {
+                Arrays.fill(_deleted, aLo, aHi, true);
+            } else {
+                bisect(aLo, aHi, bLo, bHi);
+            }
+        }
+
+        /** Finds where the forward and backward searches for a shortest
+         *  edit script from _a[ALO .. AHI-1] to _b[BLO .. BHI-1] meet,
+         *  and compares the parts on either side of that point. Both
+         *  ranges must be nonempty, and differ in their first and in
+         *  their last lines. */
+        private void bisect(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int maxD = (n + m + 1) / 2;
+            int limit = Math.max(COST_MIN, (int) Math.sqrt(n + m));
+            int offset = Math.min(maxD, limit + 1);
+            int[] forward = new int[2 * offset + 2];
+            int[] backward = new int[2 * offset + 2];
+            Arrays.fill(forward, -1);
+            Arrays.fill(backward, -1);
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int fStart = 0;
+            int fEnd = 0;
+            int bStart = 0;
+            int bEnd = 0;
+            int bestX = 0;
+            int bestY = 0;
+            for (int d = 0; d < maxD; d += 1) {
+                if (d == limit) {
+                    split(aLo, aHi, bLo, bHi, bestX, bestY);
+                    return;
+                }
+                for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                    int at = offset + k;
+                    int x;
+                    if (k == -d || k != d
+                            && forward[at - 1] < forward[at + 1]) {
+                        x = forward[at + 1];
+                    } else {
+                        x = forward[at - 1] + 1;
+                    }
+                    int y = x - k;
+                    while (x < n && y < m
+                            && _a[aLo + x] == _b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[at] = x;
+                    if (x > n) {
+                        fEnd += 2;
+                    } else if (y > m) {
+                        fStart += 2;
+                    } else if (x + y > bestX + bestY) {
+                        bestX = x;
+                        bestY = y;
+                    }
+                    if (x <= n && y <= m && odd) {
+                        int back = offset + delta - k;
+                        if (back >= 0 && back < backward.length
+                                && backward[back] != -1
+                                && x >= n - backward[back]) {
+                            split(aLo, aHi, bLo, bHi, x, y);
+                            return;
+                        }
+                    }
+                }
+                for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                    int at = offset + k;
+                    int x;
+                    if (k == -d || k != d
+                            && backward[at - 1] < backward[at + 1]) {
+                        x = backward[at + 1];
+                    } else {
+                        x = backward[at - 1] + 1;
+                    }
+                    int y = x - k;
+                    while (x < n && y < m
+                            && _a[aHi - x - 1] == _b[bHi - y - 1]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[at] = x;
+                    if (x > n) {
+                        bEnd += 2;
+                    } else if (y > m) {
+                        bStart += 2;
+                    } else if (!odd) {
+                        int front = offset + delta - k;
+                        if (front >= 0 && front < forward.length
+                                && forward[front] != -1) {
+                            int fx = forward[front];
+                            int fy = offset + fx - front;
+                            if (fx >= n - x) {
+                                split(aLo, aHi, bLo, bHi, fx, fy);
+                                return;
+                            }
+                        }
+                    }
+                }
+            }
+            Arrays.fill(_deleted, aLo, aHi, true);
+            Arrays.fill(_inserted, bLo, bHi, true);
+        }
+
+        /** Compares _a[ALO .. AHI-1] with _b[BLO .. BHI-1] as two
+         *  parts, split X lines into the first and Y into the second. */
+        private void split(int aLo, int aHi, int bLo, int bHi,
+                           int x, int y) {
+            compare(aLo, aLo + x, bLo, bLo + y);
+            compare(aLo + x, aHi, bLo + y, bHi);
+        }
+    }
+}
@@ -0,0 +1,689 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/** Bulk import of history from a stream of commands in the format read
+ *  by git fast-import and written by git fast-export. The stream is
+ *  read by one thread. Blobs are hashed on a pool of Restore.workers()
+ *  threads as they arrive, and commits go in order to a builder thread
+ *  that makes their trees. New objects are gathered in memory by
+ *  ObjectStore.beginBatch and packed in the background, the commit
+ *  graph is extended once per GRAPH_BATCH commits, and the branches are
+ *  moved once, when the whole stream has been read.
+ *  <p>
+ *  Understood: blob, commit (mark, author, committer, data, from,
+ *  merge, M, D, deleteall), reset, tag (skipped, as gitlet has no tags),
+ *  progress, checkpoint, feature, option and done. Only refs/heads/
+ *  refs, or bare branch names, may be written. A commit with no parent
+ *  becomes a child of the initial commit, so that every history shares
+ *  the root gitlet gives each repository.
+ *  @author Cassandra Calciano
+ */
+class FastImport {
+
+    /** Commits waiting for the builder. */
+    private static final int QUEUE = 1 << 12;
+
+    /** Commits added to the commit graph at a time. */
+    private static final int GRAPH_BATCH = 1 << 16;
+
+    /** Most bytes of blobs read but not yet hashed. */
+    private static final int IN_FLIGHT = 64 << 20;
+
+    /** How long the reader waits on a full queue before checking that
+     *  the builder is still running, in milliseconds. */
+    private static final long POLL = 100;
+
+    /** Queued after the last commit. */
+    private static final Pending END = new Pending(null);
+
+    /** Id of the null object, which names no commit. */
+    private static final String NULL_ID = "0".repeat(Utils.UID_LENGTH);
+
+    /** The stream. */
+    private BufferedInputStream _in;
+
+    /** A line read and put back, or null. */
+    private String _unread;
+
+    /** Blobs, as Futures of their ids, and commits, as Pendings, by
+     *  mark. */
+    private HashMap<String, Object> _marks = new HashMap<>();
+
+    /** The tip of each branch written so far: a Pending, the id of a
+     *  stored commit, or null for a branch whose next commit has no
+     *  parent. */
+    private HashMap<String, Object> _tips = new HashMap<>();
+
+    /** The commit each branch written held before the import, or null
+     *  if it is new, in the order they were first named. */
+    private LinkedHashMap<String, String> _before = new LinkedHashMap<>();
+
+    /** Hashes and stores blobs. */
+    private ExecutorService _hashers;
+
+    /** Bytes of blobs that may still be read before being hashed. */
+    private Semaphore _inFlight = new Semaphore(IN_FLIGHT);
+
+    /** Commits read and not yet built. */
+    private ArrayBlockingQueue<Pending> _queue =
+        new ArrayBlockingQueue<>(QUEUE);
+
+    /** Built commits not yet added to the commit graph. */
+    private ArrayList<Commits> _built = new ArrayList<>();
+
+    /** Id of the initial commit. */
+    private String _initial;
+
+    /** Numbers of blobs and commits read. */
+    private int _blobs, _commits;
+
+    /** An import reading IN. */
+    private FastImport(InputStream in) {
+        _in = new BufferedInputStream(in, Blob.CHUNK);
+    }
+
+    /** Imports the stream IN, leaving the moves of the branches it wrote
+     *  for the journal to commit, and returns the new commit of each
+     *  branch that moved, by name. */
+    static Map<String, String> run(InputStream in) {
+        return new FastImport(in).run();
+    }
+
+    /** Does the work of run(InputStream). */
+    private Map<String, String> run() {
+        Commits initial = new Commits("initial commit", new Tree().save(),
+                null);
+        initial.setCommitFirstDate();
+        _initial = initial.getCommitID();
+        _hashers = Executors.newFixedThreadPool(Restore.workers());
+        ExecutorService builder = Executors.newSingleThreadExecutor();
+        ObjectStore.beginBatch();
+        try {
+            Future<?> building = builder.submit(this::build);
+            try {
+                read(building);
+            } finally {
+                while (!_queue.offer(END, POLL, TimeUnit.MILLISECONDS)) {
+                    if (building.isDone()) {
+                        break;
+                    }
+                }
+            }
+            await(building);
+            ObjectStore.flushBatch();
+            CommitGraph.append(_built);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            builder.shutdownNow();
+            _hashers.shutdownNow();
+            ObjectStore.endBatch();
+        }
+        MessageIndex.update(CommitGraph.open());
+        LinkedHashMap<String, String> moved = new LinkedHashMap<>();
+        for (Map.Entry<String, String> branch : _before.entrySet()) {
+            String id = id(_tips.get(branch.getKey()));
+            if (id != null && !id.equals(branch.getValue())) {
+                Journal.update(Utils.join(Main.BRANCHES, branch.getKey()),
+                        branch.getValue(), id);
+                moved.put(branch.getKey(), id);
+            }
+        }
+        System.out.println("Imported " + _commits + " commits and "
+                + _blobs + " blobs.");
+        return moved;
+    }
+
+    /** Reads the commands of the stream, handing commits to the builder
+     *  while BUILDING runs. */
+    private void read(Future<?> building) throws InterruptedException {
+        for (String line = readLine(); line != null; line = readLine()) {
+            String command = line.split(" ", 2)[0];
+            String arg = line.substring(command.length()).trim();
+            switch (command) {
+            case "":
+            case "checkpoint":
+            case "feature":
+            case "option":
+                break;
+            case "done":
+                return;
+            case "progress":
+                System.out.println(line);
+                break;
+            case "blob":
+                readBlob();
+                break;
+            case "commit":
+                Pending commit = readCommit(arg);
+                while (!_queue.offer(commit, POLL, TimeUnit.MILLISECONDS)) {
+                    if (building.isDone()) {
+                        await(building);
+                    }
+                }
+                break;
+            case "reset":
+                readReset(arg);
+                break;
+            case "tag":
+                skipTag();
+                break;
+            default:
+                throw Utils.error("Unsupported fast-import command: %s",
+                        line);
+            }
+        }
+    }
+
+    /** Reads a blob command. */
+    private void readBlob() {
+        String mark = null;
+        String line = readLine();
+        while (line != null && !line.startsWith("data ")) {
+            if (line.startsWith("mark ")) {
+                mark = line.substring("mark ".length());
+            } else if (!line.startsWith("original-oid ")) {
+                throw Utils.error("Expected data in blob: %s", line);
+            }
+            line = readLine();
+        }
+        if (line == null) {
+            throw Utils.error("Unexpected end of fast-import stream.");
+        }
+        Future<String> blob = readData(line);
+        if (mark != null) {
+            _marks.put(mark, blob);
+        }
+    }
+
+    /** Reads a commit command writing REF. */
+    private Pending readCommit(String ref) {
+        Pending commit = new Pending(branch(ref));
+        String mark = null;
+        boolean from = false;
+        for (String line = readLine(); line != null; line = readLine()) {
+            if (line.isEmpty()) {
+                break;
+            } else if (line.startsWith("mark ")) {
+                mark = line.substring("mark ".length());
+            } else if (line.startsWith("committer ")) {
+                commit._date = date(line);
+            } else if (line.startsWith("data ")) {
+                commit._message = message(readBytes(line));
+            } else if (line.startsWith("from ")) {
+                commit._from = commitAt(line.substring("from ".length()));
+                from = true;
+            } else if (line.startsWith("merge ")) {
+                if (commit._merge != null) {
+                    throw Utils.error("Merges of more than two commits "
+                            + "are not supported.");
+                }
+                commit._merge = commitAt(line.substring("merge ".length()));
+            } else if (line.startsWith("M ")) {
+                readModify(line, commit);
+            } else if (line.startsWith("D ")) {
+                commit._changes.put(path(line.substring(2)), null);
+            } else if (line.equals("deleteall")) {
+                commit._deleteAll = true;
+                commit._changes.clear();
+            } else if (line.startsWith("gpgsig ")) {
+                readBytes(readLine());
+            } else if (!line.startsWith("author ")
+                    && !line.startsWith("encoding ")
+                    && !line.startsWith("original-oid ")) {
+                _unread = line;
+                break;
+            }
+        }
+        if (!from) {
+            commit._from = tip(commit._branch);
+        }
+        _tips.put(commit._branch, commit);
+        if (mark != null) {
+            _marks.put(mark, commit);
+        }
+        _commits += 1;
+        return commit;
+    }
+
+    /** Reads the M command LINE of COMMIT. */
+    private void readModify(String line, Pending commit) {
+        String[] parts = line.split(" ", 4);
+        if (parts.length < 4) {
+            throw Utils.error("Malformed command: %s", line);
+        }
+        String mode = parts[1];
+        String path = path(parts[3]);
+        Future<String> blob;
+        if (parts[2].equals("inline")) {
+            blob = readData(readLine());
+        } else if (parts[2].startsWith(":")) {
+            Object marked = _marks.get(parts[2]);
+            if (!(marked instanceof Future)) {
+                throw Utils.error("No blob with mark %s.", parts[2]);
+            }
+            @SuppressWarnings("unchecked")
+            Future<String> found = (Future<String>) marked;
+            blob = found;
+        } else {
+            blob = CompletableFuture.completedFuture(
+                    ObjectId.parse(parts[2]).toString());
+        }
+        if (mode.equals("040000")) {
+            throw Utils.error("Directories cannot be modified: %s", line);
+        } else if (!mode.equals("160000")) {
+            commit._changes.put(path, blob);
+        }
+    }
+
+    /** Reads a reset command of REF. */
+    private void readReset(String ref) {
+        String branch = branch(ref);
+        tip(branch);
+        String line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            _tips.put(branch, commitAt(line.substring("from ".length())));
+        } else {
+            _tips.put(branch, null);
+            _unread = line;
+        }
+    }
+
+    /** Reads past a tag command. */
+    private void skipTag() {
+        for (String line = readLine(); line != null; line = readLine()) {
+            if (line.startsWith("data ")) {
+                readBytes(line);
+                return;
+            }
+        }
+    }
+
+    /** Returns the branch that REF names. */
+    private static String branch(String ref) {
+        String name = ref.startsWith("refs/heads/")
+                ? ref.substring("refs/heads/".length()) : ref;
+        if (name.isEmpty() || name.startsWith("refs/")
+                || name.contains("/")) {
+            throw Utils.error("Only branches can be imported: %s", ref);
+        }
+        return name;
+    }
+
+    /** Returns the tip of BRANCH, noting what it held before the import
+     *  if this is the first time it is named. */
+    private Object tip(String branch) {
+        if (!_before.containsKey(branch)) {
+            File ref = Utils.join(Main.BRANCHES, branch);
+            String id = ref.isFile() ? Utils.readContentsAsString(ref)
+                    : null;
+            _before.put(branch, id);
+            _tips.put(branch, id);
+        }
+        return _tips.get(branch);
+    }
+
+    /** Returns the commit that COMMITISH, a mark, commit id or branch,
+     *  names, as a Pending or an id, or null for the null id. */
+    private Object commitAt(String commitish) {
+        if (commitish.startsWith(":")) {
+            Object marked = _marks.get(commitish);
+            if (!(marked instanceof Pending)) {
+                throw Utils.error("No commit with mark %s.", commitish);
+            }
+            return marked;
+        } else if (commitish.equals(NULL_ID)) {
+            return null;
+        } else if (commitish.length() == Utils.UID_LENGTH
+                && commitish.matches("[0-9a-f]+")) {
+            if (!ObjectStore.contains(ObjectStore.COMMIT, commitish)) {
+                throw Utils.error("No commit with id %s.", commitish);
+            }
+            return commitish;
+        }
+        String branch = branch(commitish);
+        Object tip = tip(branch);
+        if (tip == null) {
+            throw Utils.error("No branch %s.", branch);
+        }
+        return tip;
+    }
+
+    /** Returns the date of the committer line LINE, in the raw format
+     *  of seconds since the epoch and a zone, or now. */
+    private static Date date(String line) {
+        String[] parts = line.substring(line.lastIndexOf('>') + 1).trim()
+                .split(" ");
+        try {
+            return new Date(Long.parseLong(parts[0]) * 1000);
+        } catch (NumberFormatException excp) {
+            return new Date();
+        }
+    }
+
+    /** Returns the commit message held in BYTES, less the line end git
+     *  gives every message. */
+    private static String message(byte[] bytes) {
+        String message = new String(bytes, StandardCharsets.UTF_8);
+        return message.endsWith("\n")
+                ? message.substring(0, message.length() - 1) : message;
+    }
+
+    /** Returns the path PATH, unquoting it if git quoted it, after
+     *  checking that it names a file inside the working directory and
+     *  outside .gitlet. */
+    private static String path(String path) {
+        String result = unquote(path);
+        if (result.isEmpty() || result.startsWith("/")
+                || result.endsWith("/")) {
+            throw Utils.error("Bad path: %s", path);
+        }
+        for (String name : result.split("/")) {
+            if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+                throw Utils.error("Bad path: %s", path);
+            }
+        }
+        if (result.equals(".gitlet") || result.startsWith(".gitlet/")) {
+            throw Utils.error("Bad path: %s", path);
+        }
+        return result;
+    }
+
+    /** Returns PATH, unquoting it if git quoted it. */
+    private static String unquote(String path) {
+        if (!path.startsWith("\"")) {
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 1; i < path.length() - 1; i += 1) {
+            char c = path.charAt(i);
+            if (c != '\\') {
+                bytes.writeBytes(String.valueOf(c)
+                        .getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            i += 1;
+            c = path.charAt(i);
+            if (c >= '0' && c <= '7') {
+                bytes.write(Integer.parseInt(path.substring(i, i + 3), 8));
+                i += 2;
+            } else {
+                bytes.write(c == 'n' ? '\n' : c == 't' ? '\t' : c);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Reads the data that the data command LINE introduces as a blob,
+     *  and returns the Future of its id. Blobs below Chunker.LARGE are
+     *  hashed and stored on the pool; larger ones are chunked as they
+     *  are read. */
+    private Future<String> readData(String line) {
+        long size = dataSize(line);
+        _blobs += 1;
+        try {
+            if (size >= Chunker.LARGE) {
+                String id = Chunker.store(Channels.newChannel(
+                        new Limited(_in, size)));
+                skipLineEnd();
+                return CompletableFuture.completedFuture(id);
+            }
+            byte[] contents = readBytes(line);
+            _inFlight.acquire(contents.length);
+            return _hashers.submit(() -> {
+                try {
+                    String id = Utils.sha1(contents);
+                    ObjectStore.write(ObjectStore.BLOB, id, contents);
+                    return id;
+                } finally {
+                    _inFlight.release(contents.length);
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the size the data command LINE gives. */
+    private static long dataSize(String line) {
+        if (line == null || !line.startsWith("data ")) {
+            throw Utils.error("Expected data: %s", line);
+        }
+        try {
+            return Long.parseLong(line.substring("data ".length()));
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Unsupported data command: %s", line);
+        }
+    }
+
+    /** Reads the data that the data command LINE introduces. */
+    private byte[] readBytes(String line) {
+        long size = dataSize(line);
+        if (size >= Integer.MAX_VALUE) {
+            throw Utils.error("Data too large: %s", line);
+        }
+        try {
+            byte[] data = _in.readNBytes((int) size);
+            if (data.length != size) {
+                throw Utils.error("Unexpected end of fast-import stream.");
+            }
+            skipLineEnd();
+            return data;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads past the line end that may follow data. */
+    private void skipLineEnd() throws IOException {
+        _in.mark(1);
+        if (_in.read() != '\n') {
+            _in.reset();
+        }
+    }
+
+    /** Returns the next line of the stream, without its end, or null at
+     *  the end of the stream. */
+    private String readLine() {
+        if (_unread != null) {
+            String line = _unread;
+            _unread = null;
+            return line;
+        }
+        try {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c = _in.read();
+            if (c < 0) {
+                return null;
+            }
+            while (c >= 0 && c != '\n') {
+                line.write(c);
+                c = _in.read();
+            }
+            return line.toString(StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Builds the queued commits in order until END. */
+    private void build() {
+        for (Pending commit = take(); commit != END; commit = take()) {
+            String parent = id(commit._from);
+            if (parent == null) {
+                parent = _initial;
+            }
+            String base = commit._deleteAll ? null : tree(commit._from);
+            TreeMap<String, String> changes = new TreeMap<>();
+            for (Map.Entry<String, Future<String>> change
+                     : commit._changes.entrySet()) {
+                Future<String> blob = change.getValue();
+                changes.put(change.getKey(), blob == null ? null
+                        : await(blob));
+            }
+            String tree = Tree.update(base, changes);
+            Commits built = new Commits(commit._message, tree, parent,
+                    id(commit._merge), commit._date);
+            built.save();
+            commit._tree = tree;
+            commit._id = built.getCommitID();
+            commit._changes = null;
+            _built.add(built);
+            if (_built.size() >= GRAPH_BATCH) {
+                ObjectStore.flushBatch();
+                CommitGraph.append(_built);
+                _built.clear();
+            }
+        }
+    }
+
+    /** Returns the id of COMMIT, a Pending already built or an id. */
+    private static String id(Object commit) {
+        if (commit instanceof Pending) {
+            return ((Pending) commit)._id;
+        }
+        return (String) commit;
+    }
+
+    /** Returns the tree of COMMIT, a Pending already built or an id, or
+     *  null if COMMIT is. */
+    private static String tree(Object commit) {
+        if (commit instanceof Pending) {
+            return ((Pending) commit)._tree;
+        }
+        return commit == null ? null
+                : Commits.load((String) commit).getTreeSha();
+    }
+
+    /** Returns the next commit queued for the builder. */
+    private Pending take() {
+        try {
+            return _queue.take();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Waits for TASK to finish and returns its result, rethrowing what
+     *  it threw. */
+    private static <T> T await(Future<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        }
+    }
+
+    /** A commit read from the stream. */
+    private static class Pending {
+
+        /** The branch it is written to. */
+        private String _branch;
+
+        /** Its parent, as a Pending or an id, or null for none. */
+        private Object _from;
+
+        /** The commit merged into it, as a Pending or an id, or null. */
+        private Object _merge;
+
+        /** Its message. */
+        private String _message = "";
+
+        /** When it was made. */
+        private Date _date = new Date();
+
+        /** True if it starts from an empty tree rather than its
+         *  parent's. */
+        private boolean _deleteAll;
+
+        /** Paths it changes, with the Futures of their new blobs or null
+         *  for deletions; null once it is built. */
+        private TreeMap<String, Future<String>> _changes = new TreeMap<>();
+
+        /** Its tree and id, once it is built. */
+        private volatile String _tree, _id;
+
+        /** A commit to BRANCH. */
+        Pending(String branch) {
+            _branch = branch;
+        }
+    }
+
+    /** The first bytes of a stream, given as a stream of their own that
+     *  ends after them and leaves the rest unread. */
+    private static class Limited extends FilterInputStream {
+
+        /** Bytes left. */
+        private long _left;
+
+        /** The first LENGTH bytes of IN. */
+        Limited(InputStream in, long length) {
+            super(in);
+            _left = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_left == 0) {
+                return -1;
+            }
+            int c = super.read();
+            if (c < 0) {
+                throw Utils.error("Unexpected end of fast-import stream.");
+            }
+            _left -= 1;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (_left == 0) {
+                return -1;
+            }
+            int n = super.read(buf, off, (int) Math.min(len, _left));
+            if (n < 0) {
+                throw Utils.error("Unexpected end of fast-import stream.");
+            }
+            _left -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
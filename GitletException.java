@@ -6,6 +6,8 @@ package gitlet;
  */
 class GitletException extends RuntimeException {
 
+    /** Fixes the stream format of this class. */
+    private static final long serialVersionUID = 1L;
 
     /** A GitletException with no message. */
     GitletException() {
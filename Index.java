@@ -0,0 +1,406 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** The index: one entry for every tracked path, holding the blob the
+ *  path has in the head commit, the blob staged for the next commit,
+ *  and the size, modification time and inode the working file had when
+ *  that blob was last known to match it. A file whose stat data is
+ *  unchanged is taken to still match without being hashed again.
+ *  @author Cassandra Calciano
+ */
+class Index {
+
+    /** Marks the start of an index file. */
+    private static final int MAGIC = 0x47494458;
+
+    /** Version of the index format written by this class. */
+    private static final int VERSION = 1;
+
+    /** Entries of this index, by path. */
+    private TreeMap<String, Entry> _entries = new TreeMap<>();
+
+    /** Modification time of the index file when it was read, in
+     *  nanoseconds. Entries at least this recent may have been changed
+     *  again within the same clock tick, so their stat data is not
+     *  trusted. */
+    private long _written;
+
+    /** True if stat data was refreshed since this index was read. */
+    private boolean _refreshed;
+
+    /** True if this index was changed since it was read or written. */
+    private boolean _dirty;
+
+    /** Reads the index of the repository. A repository without an
+     *  index gets one built from its head commit.
+     * @return the index */
+    static Index read() {
+        Index kept = (Index) Daemon.kept(Main.INDEX);
+        if (kept != null && !kept._dirty && !kept._refreshed) {
+            return kept;
+        }
+        if (!Main.INDEX.exists()) {
+            return fromCommit(Main.headCommit());
+        }
+        Index index = new Index();
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(Main.INDEX.toPath()))) {
+            index._written = Files.getLastModifiedTime(
+                    Main.INDEX.toPath()).to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Unrecognized index format.");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                Entry entry = new Entry(in.readUTF());
+                entry._headSha = orNull(in.readUTF());
+                entry._sha = orNull(in.readUTF());
+                entry._size = in.readLong();
+                entry._mtime = in.readLong();
+                entry._ino = in.readLong();
+                index._entries.put(entry._path, entry);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Daemon.keep(index, Main.INDEX);
+        return index;
+    }
+
+    /** Returns an index holding exactly the files of COMMIT, with no
+     *  stat data, so each file is hashed once the first time it is
+     *  checked. */
+    static Index fromCommit(Commits commit) {
+        Index index = new Index();
+        TreeMap<String, String> files = new TreeMap<>();
+        Tree.flatten(commit.getTreeSha(), "", files);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Entry entry = new Entry(file.getKey());
+            entry._headSha = file.getValue();
+            entry._sha = file.getValue();
+            index._entries.put(file.getKey(), entry);
+        }
+        return index;
+    }
+
+    /** Writes this index to INDEX when the command commits. */
+    void write() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for (Entry entry : _entries.values()) {
+                out.writeUTF(entry._path);
+                out.writeUTF(entry._headSha == null ? "" : entry._headSha);
+                out.writeUTF(entry._sha == null ? "" : entry._sha);
+                out.writeLong(entry._size);
+                out.writeLong(entry._mtime);
+                out.writeLong(entry._ino);
+            }
+            out.close();
+            Journal.update(Main.INDEX, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _dirty = false;
+        _refreshed = false;
+        Daemon.keep(this, Main.INDEX);
+    }
+
+    /** Returns S, or null if S is empty. */
+    private static String orNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    /** Returns the entry for PATH, or null if PATH is not tracked. */
+    Entry get(String path) {
+        return _entries.get(path);
+    }
+
+    /** Returns all entries, by path. */
+    TreeMap<String, Entry> entries() {
+        return _entries;
+    }
+
+    /** Stages blob SHA1 for PATH, whose working file is FILE. */
+    void stage(String path, String sha1, File file) {
+        Entry entry = _entries.computeIfAbsent(path, Entry::new);
+        entry._sha = sha1;
+        entry.record(file);
+        _dirty = true;
+    }
+
+    /** Stages blob SHA1 for PATH, whose working file is outside the
+     *  sparse checkout and so is never read. */
+    void stage(String path, String sha1) {
+        Entry entry = _entries.computeIfAbsent(path, Entry::new);
+        entry._sha = sha1;
+        entry.forget();
+        _dirty = true;
+    }
+
+    /** Stages PATH for removal, or forgets it if it is not in the head
+     *  commit. */
+    void remove(String path) {
+        Entry entry = _entries.get(path);
+        if (entry == null) {
+            return;
+        }
+        _dirty = true;
+        if (entry._headSha == null) {
+            _entries.remove(path);
+        } else {
+            entry._sha = null;
+        }
+    }
+
+    /** Returns the staged changes: each path whose staged blob differs
+     *  from its head blob, mapped to the staged blob or to null for a
+     *  removal. */
+    TreeMap<String, String> changes() {
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (Entry entry : _entries.values()) {
+            if (entry.isStaged() || entry.isRemoved()) {
+                changes.put(entry._path, entry._sha);
+            }
+        }
+        return changes;
+    }
+
+    /** Marks every staged change as committed. */
+    void committed() {
+        _dirty = true;
+        ArrayList<String> gone = new ArrayList<>();
+        for (Entry entry : _entries.values()) {
+            if (entry._sha == null) {
+                gone.add(entry._path);
+            }
+            entry._headSha = entry._sha;
+        }
+        for (String path : gone) {
+            _entries.remove(path);
+        }
+    }
+
+    /** Moves this index from the commit it described to a commit that
+     *  differs from it by CHANGES, whose files in SPARSE have already
+     *  been written. Anything staged is dropped, as after a checkout or
+     *  reset. */
+    void switched(Tree.Changes changes, Sparse sparse) {
+        _dirty = true;
+        ArrayList<String> gone = new ArrayList<>();
+        for (Entry entry : _entries.values()) {
+            if (entry._headSha == null) {
+                gone.add(entry._path);
+            } else if (!entry._headSha.equals(entry._sha)) {
+                entry._sha = entry._headSha;
+                entry.forget();
+            }
+        }
+        gone.addAll(changes.removed());
+        for (String path : gone) {
+            _entries.remove(path);
+        }
+        TreeMap<String, String> written = new TreeMap<>(changes.added());
+        written.putAll(changes.modified());
+        for (Map.Entry<String, String> file : written.entrySet()) {
+            Entry entry = _entries.computeIfAbsent(file.getKey(),
+                    Entry::new);
+            entry._headSha = file.getValue();
+            entry._sha = file.getValue();
+            if (sparse.includes(file.getKey())) {
+                entry.record(Utils.join(Main.CURRENTDIRECTORY,
+                        file.getKey()));
+            } else {
+                entry.forget();
+            }
+        }
+    }
+
+    /** Records the stat data of the working files of PATHS, which were
+     *  just written or deleted. */
+    void restat(Collection<String> paths) {
+        for (String path : paths) {
+            Entry entry = _entries.get(path);
+            if (entry != null) {
+                entry.record(Utils.join(Main.CURRENTDIRECTORY, path));
+                _dirty = true;
+            }
+        }
+    }
+
+    /** Returns true if FILE still holds the staged blob of ENTRY. The
+     *  file is hashed only if its stat data changed; when the hash still
+     *  matches, the new stat data is recorded so the next check is
+     *  cheap again. */
+    boolean matches(Entry entry, File file) {
+        if (entry._sha == null) {
+            return false;
+        }
+        if (unchanged(entry, file)) {
+            return true;
+        }
+        Stat stat = Stat.of(file);
+        if (stat == null) {
+            return false;
+        }
+        if (stat._size != entry._size && entry._mtime != 0) {
+            return false;
+        }
+        if (!entry._sha.equals(Blob.hash(file))) {
+            return false;
+        }
+        entry.record(stat);
+        _refreshed = true;
+        return true;
+    }
+
+    /** Returns true if the stat data of FILE is what ENTRY recorded,
+     *  so that FILE may be taken to hold the staged blob without being
+     *  hashed. Unlike matches, this never changes ENTRY. */
+    boolean unchanged(Entry entry, File file) {
+        Stat stat = Stat.of(file);
+        return stat != null && entry._mtime != 0
+                && stat._size == entry._size && stat._mtime == entry._mtime
+                && stat._ino == entry._ino && entry._mtime < _written;
+    }
+
+    /** Returns true if matches recorded new stat data that is worth
+     *  writing back. */
+    boolean refreshed() {
+        return _refreshed;
+    }
+
+    /** One tracked path. */
+    static class Entry {
+
+        /** Path of the file, relative to the working directory. */
+        private String _path;
+
+        /** Blob of the file in the head commit, or null. */
+        private String _headSha;
+
+        /** Blob staged for the next commit, or null for a removal. */
+        private String _sha;
+
+        /** Size of the working file when last known to match. */
+        private long _size;
+
+        /** Modification time, in nanoseconds, when last known to match,
+         *  or 0 if the file has not been checked. */
+        private long _mtime;
+
+        /** Inode number when last known to match, or 0. */
+        private long _ino;
+
+        /** An entry for PATH. */
+        Entry(String path) {
+            _path = path;
+        }
+
+        /** Returns the path of this entry. */
+        String path() {
+            return _path;
+        }
+
+        /** Returns the blob staged for this path, or null. */
+        String sha() {
+            return _sha;
+        }
+
+        /** Returns the blob of this path in the head commit, or null. */
+        String headSha() {
+            return _headSha;
+        }
+
+        /** Returns true if a new blob is staged for this path. */
+        boolean isStaged() {
+            return _sha != null && !_sha.equals(_headSha);
+        }
+
+        /** Returns true if this path is staged for removal. */
+        boolean isRemoved() {
+            return _sha == null && _headSha != null;
+        }
+
+        /** Records the current stat data of FILE. */
+        void record(File file) {
+            Stat stat = Stat.of(file);
+            if (stat == null) {
+                forget();
+            } else {
+                record(stat);
+            }
+        }
+
+        /** Records STAT as the stat data of this entry. */
+        private void record(Stat stat) {
+            _size = stat._size;
+            _mtime = stat._mtime;
+            _ino = stat._ino;
+        }
+
+        /** Drops the stat data, so the file is hashed when next checked. */
+        void forget() {
+            _size = 0;
+            _mtime = 0;
+            _ino = 0;
+        }
+    }
+
+    /** Stat data of a working file. */
+    private static class Stat {
+
+        /** Size in bytes. */
+        private long _size;
+
+        /** Modification time in nanoseconds. */
+        private long _mtime;
+
+        /** Inode number, or 0 where the file system has none. */
+        private long _ino;
+
+        /** Returns the stat data of FILE, or null if it is not a normal
+         *  file. */
+        static Stat of(File file) {
+            try {
+                Stat stat = new Stat();
+                Map<String, Object> attrs;
+                try {
+                    attrs = Files.readAttributes(file.toPath(),
+                            "unix:isRegularFile,size,lastModifiedTime,ino",
+                            LinkOption.NOFOLLOW_LINKS);
+                    stat._ino = ((Number) attrs.get("ino")).longValue();
+                } catch (UnsupportedOperationException excp) {
+                    attrs = Files.readAttributes(file.toPath(),
+                            "isRegularFile,size,lastModifiedTime",
+                            LinkOption.NOFOLLOW_LINKS);
+                }
+                if (!((Boolean) attrs.get("isRegularFile"))) {
+                    return null;
+                }
+                stat._size = (Long) attrs.get("size");
+                stat._mtime = ((FileTime) attrs.get("lastModifiedTime"))
+                        .to(TimeUnit.NANOSECONDS);
+                return stat;
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/** Makes each command all-or-nothing on disk. Objects are written
+ *  straight away, each to a temporary file renamed into place, and only
+ *  noted here. Changes to refs and the index are held until commit,
+ *  which first makes every noted object durable, then writes the new
+ *  refs to temporary files and lists them in a journal, and only then
+ *  renames them over the old ones. A crash before the journal is
+ *  complete leaves every ref as it was; a crash after it is finished
+ *  by recover, which Main runs before each command.
+ *  <p>
+ *  A ref may be given the contents it is expected to hold. Commit then
+ *  takes the locks on its refs, and fails, changing nothing, if any of
+ *  them no longer holds what was expected, so that two commands cannot
+ *  both move a branch from the same commit. Each command writes its own
+ *  journal in .gitlet/journals and keeps it locked until it is done;
+ *  recover only touches journals whose lock is free, which are those of
+ *  commands that died.
+ *  <p>
+ *  The fsyncs of one command are grouped: the objects are synced
+ *  together, in parallel, each directory once, and the refs share one
+ *  journal. Setting the gitlet.fsync property or the GITLET_FSYNC
+ *  environment variable to 0 leaves syncing to the operating system.
+ *  <p>
+ *  Journal: MAGIC, a count, then for each ref its path and the path of
+ *  its new contents (empty to delete it), and a CRC-32 of all of that.
+ *  @author Cassandra Calciano
+ */
+class Journal {
+
+    /** Marks the start of a journal. */
+    private static final int MAGIC = 0x474a524e;
+
+    /** Fewest objects worth syncing on a pool. */
+    private static final int PARALLEL_MIN = 16;
+
+    /** Objects written since the last commit. */
+    private static final ConcurrentLinkedQueue<Path> WRITTEN =
+        new ConcurrentLinkedQueue<>();
+
+    /** New contents of refs, or null for refs to delete, in the order
+     *  they were given. */
+    private static final Map<File, byte[]> PENDING = new LinkedHashMap<>();
+
+    /** Contents that refs must hold when the command commits, or null
+     *  for refs that must not exist. */
+    private static final Map<File, String> EXPECTED = new HashMap<>();
+
+    /** Notes that the object file OBJECT was written, so that commit
+     *  syncs it. */
+    static void wrote(File object) {
+        WRITTEN.add(object.toPath());
+    }
+
+    /** Sets the contents of REF to CONTENTS when the command commits. */
+    static synchronized void update(File ref, String contents) {
+        update(ref, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Sets the contents of REF to CONTENTS when the command commits. */
+    static synchronized void update(File ref, byte[] contents) {
+        PENDING.put(ref, contents);
+    }
+
+    /** Sets the contents of REF to CONTENTS when the command commits,
+     *  provided that REF then still holds EXPECTED, or does not exist if
+     *  EXPECTED is null. */
+    static synchronized void update(File ref, String expected,
+                                    String contents) {
+        expect(ref, expected);
+        update(ref, contents);
+    }
+
+    /** Deletes REF when the command commits, provided that it then
+     *  still holds EXPECTED. */
+    static synchronized void delete(File ref, String expected) {
+        expect(ref, expected);
+        PENDING.put(ref, null);
+    }
+
+    /** Notes that REF must hold EXPECTED when the command commits,
+     *  unless something was already expected of it. */
+    private static void expect(File ref, String expected) {
+        if (!EXPECTED.containsKey(ref)) {
+            EXPECTED.put(ref, expected);
+        }
+    }
+
+    /** Forgets everything noted since the last commit, as when a command
+     *  fails. Objects already written stay, unreferenced. */
+    static synchronized void abort() {
+        PENDING.clear();
+        EXPECTED.clear();
+        WRITTEN.clear();
+    }
+
+    /** Makes the objects and ref changes of this command durable, in
+     *  that order. */
+    static synchronized void commit() {
+        if (PENDING.isEmpty() && WRITTEN.isEmpty()) {
+            return;
+        }
+        long start = Trace.start();
+        try {
+            syncObjects();
+            if (PENDING.isEmpty()) {
+                return;
+            }
+            ArrayList<File> refs = new ArrayList<>(PENDING.keySet());
+            Locks.Held held = Locks.refs(refs);
+            try {
+                check();
+                ArrayList<Path> temps = new ArrayList<>();
+                for (File ref : refs) {
+                    byte[] contents = PENDING.get(ref);
+                    if (contents == null) {
+                        temps.add(null);
+                        continue;
+                    }
+                    Path tmp = Files.createTempFile(Main.GIT.toPath(),
+                            "ref", ".tmp");
+                    write(tmp, contents);
+                    temps.add(tmp);
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(refs.size());
+                for (int i = 0; i < refs.size(); i += 1) {
+                    out.writeUTF(refs.get(i).getPath());
+                    out.writeUTF(temps.get(i) == null ? ""
+                            : temps.get(i).toString());
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray());
+                out.writeLong(crc.getValue());
+                out.close();
+                Main.JOURNALS.mkdir();
+                Path tmp = Files.createTempFile(Main.JOURNALS.toPath(),
+                        "journal", ".tmp");
+                try (FileChannel channel = FileChannel.open(tmp,
+                        StandardOpenOption.WRITE)) {
+                    // Released as the channel closes; recover skips
+                    // journals still locked.
+                    channel.lock();
+                    ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+                    while (buf.hasRemaining()) {
+                        channel.write(buf);
+                    }
+                    if (syncing()) {
+                        channel.force(true);
+                    }
+                    Path journal = tmp.resolveSibling(
+                            tmp.getFileName().toString().replace(".tmp", ""));
+                    Files.move(tmp, journal, StandardCopyOption.ATOMIC_MOVE);
+                    syncDir(Main.JOURNALS);
+                    replay(refs, temps);
+                    Files.delete(journal);
+                }
+            } finally {
+                held.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            abort();
+            Trace.end(Trace.JOURNAL, start, 0);
+        }
+    }
+
+    /** Fails if a ref no longer holds what it was expected to. */
+    private static void check() {
+        for (Map.Entry<File, String> expected : EXPECTED.entrySet()) {
+            File ref = expected.getKey();
+            String current = ref.isFile()
+                    ? Utils.readContentsAsString(ref) : null;
+            if (!Objects.equals(current, expected.getValue())) {
+                throw Utils.error("%s was changed by another command.",
+                        ref.getName());
+            }
+        }
+    }
+
+    /** Finishes each command that died after writing its journal, and
+     *  throws away the journals of those that died before. An empty
+     *  journal is left alone: its command has created it but not yet
+     *  locked it, and until it writes there is nothing to undo. */
+    static synchronized void recover() {
+        File[] journals = Main.JOURNALS.listFiles();
+        if (journals == null) {
+            return;
+        }
+        for (File journal : journals) {
+            try (FileChannel channel = FileChannel.open(journal.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                if (lock != null && channel.size() > 0) {
+                    recover(journal);
+                }
+            } catch (NoSuchFileException | OverlappingFileLockException
+                     excp) {
+                continue;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Replays JOURNAL, whose command died, if it was finished, and
+     *  otherwise deletes the temporary files it names; then deletes
+     *  JOURNAL. */
+    private static void recover(File journal) throws IOException {
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+        ArrayList<File> refs = new ArrayList<>();
+        ArrayList<Path> temps = new ArrayList<>();
+        boolean complete = false;
+        boolean renamed = !journal.getName().endsWith(".tmp");
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            if (in.readInt() == MAGIC) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i += 1) {
+                    refs.add(new File(in.readUTF()));
+                    String tmp = in.readUTF();
+                    temps.add(tmp.isEmpty() ? null : new File(tmp).toPath());
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, bytes.length - in.available());
+                complete = in.readLong() == crc.getValue();
+            }
+        } catch (IOException excp) {
+            complete = false;
+        }
+        if (complete && renamed) {
+            Locks.Held held = Locks.refs(refs);
+            try {
+                replay(refs, temps);
+            } finally {
+                held.close();
+            }
+        } else {
+            for (Path tmp : temps) {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+        Files.delete(journal.toPath());
+    }
+
+    /** Moves each of TEMPS over the matching one of REFS, or deletes the
+     *  ref where there is no temporary file, skipping temporary files
+     *  already moved, and syncs the directories that changed. */
+    private static void replay(List<File> refs, List<Path> temps)
+        throws IOException {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (int i = 0; i < refs.size(); i += 1) {
+            Path ref = refs.get(i).toPath();
+            Path tmp = temps.get(i);
+            if (tmp == null) {
+                Files.deleteIfExists(ref);
+            } else if (Files.exists(tmp)) {
+                Files.move(tmp, ref, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirs.add(refs.get(i).getAbsoluteFile().getParentFile());
+        }
+        for (File dir : dirs) {
+            syncDir(dir);
+        }
+    }
+
+    /** Syncs every object written since the last commit, and then each
+     *  directory they were written to. */
+    private static void syncObjects() throws IOException {
+        ArrayList<Path> objects = new ArrayList<>(WRITTEN);
+        WRITTEN.clear();
+        if (objects.isEmpty() || !syncing()) {
+            return;
+        }
+        int workers = Restore.workers();
+        if (workers == 1 || objects.size() < PARALLEL_MIN) {
+            for (Path object : objects) {
+                sync(object);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                pool.submit(() -> objects.parallelStream().forEach(object -> {
+                    try {
+                        sync(object);
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(
+                                excp.getMessage());
+                    }
+                })).get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (Path object : objects) {
+            dirs.add(object.toAbsolutePath().getParent().toFile());
+        }
+        for (File dir : dirs) {
+            syncDir(dir);
+        }
+    }
+
+    /** Writes CONTENTS to FILE, replacing it, and syncs it. */
+    private static void write(Path file, byte[] contents)
+        throws IOException {
+        try (FileChannel out = FileChannel.open(file,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(contents);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            if (syncing()) {
+                out.force(true);
+            }
+        }
+    }
+
+    /** Syncs the contents of FILE, if it still exists. */
+    private static void sync(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /** Syncs the entries of DIR, where the platform allows it, so that
+     *  files created or renamed in it survive a crash. */
+    static void syncDir(File dir) {
+        if (!syncing()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Returns true unless syncing was turned off by setting gitlet.fsync
+     *  or GITLET_FSYNC to 0. */
+    static boolean syncing() {
+        String setting = System.getProperty("gitlet.fsync",
+                System.getenv("GITLET_FSYNC"));
+        return setting == null || !setting.trim().equals("0");
+    }
+}
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Locks that let commands in this process and in others share one
+ *  repository. Each lock is a ReentrantLock, which orders the threads
+ *  of this process, backed by a FileChannel lock on a file in
+ *  .gitlet/locks, which orders processes. The staging lock is held by
+ *  every command that changes the index or the working directory. Refs
+ *  are guarded by STRIPES locks, each ref taking the one its name hashes
+ *  to, so that updates to different branches seldom wait on each other.
+ *  <p>
+ *  Commands that only read take no locks. Every file they read is
+ *  replaced by a rename, so they see it either as it was or as it is.
+ *  @author Cassandra Calciano
+ */
+class Locks {
+
+    /** Number of locks refs are spread over. */
+    static final int STRIPES = 16;
+
+    /** Lock on the index and the working directory. */
+    private static final ReentrantLock STAGING = new ReentrantLock();
+
+    /** Locks on refs, by stripe. */
+    private static final ReentrantLock[] REFS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i += 1) {
+            REFS[i] = new ReentrantLock();
+        }
+    }
+
+    /** Returns the staging lock, waiting until it is free. */
+    static Held staging() {
+        Held held = new Held();
+        held.lock(STAGING, "index", true);
+        return held;
+    }
+
+    /** Returns the staging lock, or null if another thread or process
+     *  holds it. */
+    static Held tryStaging() {
+        Held held = new Held();
+        return held.lock(STAGING, "index", false) ? held : null;
+    }
+
+    /** Returns true if this thread holds the staging lock. */
+    static boolean holdsStaging() {
+        return STAGING.isHeldByCurrentThread();
+    }
+
+    /** Returns the locks on all of REFS, waiting until they are free.
+     *  Stripes are always taken in increasing order, so two commands
+     *  can never each hold a stripe the other waits for. */
+    static Held refs(Collection<File> refs) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (File ref : refs) {
+            stripes.add(stripe(ref));
+        }
+        Held held = new Held();
+        try {
+            for (int stripe : stripes) {
+                held.lock(REFS[stripe], "ref-" + stripe, true);
+            }
+        } catch (RuntimeException excp) {
+            held.close();
+            throw excp;
+        }
+        return held;
+    }
+
+    /** Returns the stripe that guards REF. */
+    static int stripe(File ref) {
+        return Math.floorMod(ref.getName().hashCode(), STRIPES);
+    }
+
+    /** Locks taken together, released in the reverse order. */
+    static class Held implements AutoCloseable {
+
+        /** The locks of this process, in the order they were taken. */
+        private ArrayList<ReentrantLock> _locks = new ArrayList<>();
+
+        /** The file locks matching _locks, or null where this thread
+         *  already held the lock, and so the file. */
+        private ArrayList<FileLock> _files = new ArrayList<>();
+
+        /** Takes LOCK and the lock on the file NAME in .gitlet/locks,
+         *  waiting for them if WAIT.
+         * @return false if WAIT is false and either is held elsewhere */
+        private boolean lock(ReentrantLock lock, String name,
+                             boolean wait) {
+            if (wait) {
+                lock.lock();
+            } else if (!lock.tryLock()) {
+                return false;
+            }
+            if (lock.getHoldCount() > 1) {
+                _locks.add(lock);
+                _files.add(null);
+                return true;
+            }
+            FileChannel channel = null;
+            try {
+                Main.LOCKS.mkdir();
+                channel = FileChannel.open(
+                        Utils.join(Main.LOCKS, name).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock file = wait ? channel.lock() : channel.tryLock();
+                if (file == null) {
+                    channel.close();
+                    lock.unlock();
+                    return false;
+                }
+                _locks.add(lock);
+                _files.add(file);
+                return true;
+            } catch (IOException excp) {
+                close(channel);
+                lock.unlock();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Releases every lock held. */
+        @Override
+        public void close() {
+            for (int i = _locks.size() - 1; i >= 0; i -= 1) {
+                FileLock file = _files.get(i);
+                if (file != null) {
+                    close(file.channel());
+                }
+                _locks.get(i).unlock();
+            }
+            _locks.clear();
+            _files.clear();
+        }
+
+        /** Closes CHANNEL, if it is not null, which releases any lock
+         *  on it. */
+        private static void close(FileChannel channel) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+}
@@ -1,12 +1,38 @@
 package gitlet;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 import static java.util.Collections.sort;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -28,41 +54,120 @@ public class Main {
     /** Folder to hold all blobs. */
     static final File BLOBS = Utils.join(GIT, "blobs");
 
+    /** Folder to hold all trees. */
+    static final File TREES = Utils.join(GIT, "trees");
+
     /** Folder to hold all commit objects. */
     static final File COMMITS = Utils.join(GIT, "commits");
 
-    /** Folder to save the files that we are
-     * ready to commit and the files we will delete. */
-    static final File STAGINGFOLDER = Utils.join(GIT, "staging");
+    /** Folder to hold the chunk lists of large blobs. */
+    static final File MANIFESTS = Utils.join(GIT, "manifests");
+
+    /** Folder to hold the chunks of large blobs. */
+    static final File CHUNKS = Utils.join(GIT, "chunks");
+
+    /** File whose presence says that every loose object starts with a
+     * Codec header. Repositories without it hold bare objects. */
+    static final File FORMAT = Utils.join(GIT, "format");
+
+    /** Folder to hold packs of objects. */
+    static final File PACKS = Utils.join(GIT, "packs");
+
+    /** File holding the commit graph: a fixed-width record per commit
+     * with its id, parents, date and generation. */
+    static final File GRAPH = Utils.join(GIT, "commit-graph");
+
+    /** File holding the ids of the commits in GRAPH, sorted. */
+    static final File COMMIT_IDS = Utils.join(GIT, "commit-ids");
+
+    /** File holding the messages of the commits in GRAPH. */
+    static final File MESSAGES = Utils.join(GIT, "commit-messages");
+
+    /** File holding the sorted postings of the commit message index. */
+    static final File MESSAGE_INDEX = Utils.join(GIT, "message-index");
 
-    /** Folder to save the files we are staging for addition. */
-    static final File ADD = Utils.join(STAGINGFOLDER, "add");
+    /** File holding postings not yet merged into MESSAGE_INDEX. */
+    static final File MESSAGE_LOG = Utils.join(GIT, "message-index.log");
 
-    /** Folder to save the files we will delete. */
-    static final File DELETE = Utils.join(STAGINGFOLDER, "delete");
+    /** Format of the dates printed by log. */
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z")
+            .withZone(ZoneId.systemDefault());
+
+    /** Socket a running daemon listens on. */
+    static final File DAEMON_SOCKET = Utils.join(GIT, "daemon.sock");
+
+    /** File holding the index: every tracked file, the version staged
+     * for the next commit, and its last known stat data. */
+    static final File INDEX = Utils.join(GIT, "index");
+
+    /** File listing the paths of a sparse checkout, if there is one. */
+    static final File SPARSE = Utils.join(GIT, "sparse");
 
     /** File with the name of the branch
      * that HEAD is pointing to written. */
     static final File HEAD = Utils.join(GIT, "HEAD");
 
+    /** Directory of the journals of commands being committed. */
+    static final File JOURNALS = Utils.join(GIT, "journals");
+
+    /** Directory of the files locked by Locks. */
+    static final File LOCKS = Utils.join(GIT, "locks");
+
+    /** Commands that hold the staging lock while they run. */
+    private static final Set<String> STAGING = Set.of("add", "rm",
+            "commit", "checkout", "reset", "merge", "gc", "sparse",
+            "fast-import", "migrate");
+
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
-
+        args = Trace.begin(args);
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
+        if (!Trace.on() && Daemon.forward(args)) {
+            return;
+        }
+        Locks.Held staging = null;
+        if (GIT.exists()) {
+            Journal.recover();
+            if (STAGING.contains(args[0])) {
+                staging = Locks.staging();
+            } else if (args[0].equals("status")) {
+                staging = Locks.tryStaging();
+            }
+        }
+        try {
+            run(args);
+            Journal.commit();
+        } catch (GitletException excp) {
+            Journal.abort();
+            if (!Baseline.present()) {
+                throw excp;
+            }
+            // An unconverted repository is the user's to fix, so say how.
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            Journal.abort();
+            throw excp;
+        } finally {
+            if (staging != null) {
+                staging.close();
+            }
+            Trace.report(args);
+        }
+    }
 
+    /** Runs the command ARGS, whose changes to refs and the index are
+     *  left for the journal to commit. */
+    private static void run(String... args) {
         if (args[0].equals("init")) {
             init();
         } else if (args[0].equals("add")) {
-            try {
-                add(args[1]);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            add(Arrays.copyOfRange(args, 1, args.length));
         } else if (args[0].equals("commit")) {
             if (args.length == 1) {
                 System.out.println("Please enter a commit message.");
@@ -71,21 +176,39 @@ public class Main {
         } else if (args[0].equals("checkout")) {
             checkout(args);
         } else if (args[0].equals("log")) {
-            log();
+            log(args);
         } else if (args[0].equals("branch")) {
             branch(args[1]);
         } else if (args[0].equals("find")) {
-            find(args[1]);
+            find(args);
         } else if (args[0].equals("rm")) {
             rm(args[1]);
         } else if (args[0].equals("global-log")) {
-            globalLog();
+            globalLog(args);
         } else if (args[0].equals("status")) {
             status();
         } else if (args[0].equals("rm-branch")) {
             rmBranch(args[1]);
         } else if (args[0].equals("reset")) {
             reset(args[1]);
+        } else if (args[0].equals("merge")) {
+            merge(args[1]);
+        } else if (args[0].equals("diff")) {
+            diff(args);
+        } else if (args[0].equals("fast-import")) {
+            fastImport();
+        } else if (args[0].equals("sparse")) {
+            sparse(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args[0].equals("gc")) {
+            ObjectStore.repack();
+        } else if (args[0].equals("migrate")) {
+            migrate();
+        } else if (args[0].equals("daemon")) {
+            if (args.length == 1) {
+                Daemon.serve();
+            } else {
+                System.out.println("No daemon is running.");
+            }
         } else {
             System.out.println("No command with that name exists.");
         }
@@ -97,19 +220,34 @@ public class Main {
         GIT.mkdir();
         BRANCHES.mkdir();
         BLOBS.mkdir();
+        TREES.mkdir();
         COMMITS.mkdir();
-        STAGINGFOLDER.mkdir();
+        Utils.writeContents(FORMAT, "1\n");
+        ObjectStore.forget();
+        new Index().write();
+    }
 
-        try {
-            DELETE.createNewFile();
-            ADD.createNewFile();
-        } catch (IOException e) {
-            return;
+    /** Returns the full id of the one commit whose id starts with
+     *  PREFIX, or prints why there is none and returns null. */
+    static String resolveCommit(String prefix) {
+        CommitGraph graph = CommitGraph.open();
+        int index = graph.resolve(prefix);
+        if (index == CommitGraph.AMBIGUOUS) {
+            System.out.println("More than one commit has that id prefix.");
+            return null;
+        } else if (index == CommitGraph.NONE) {
+            System.out.println("No commit with that id exists.");
+            return null;
         }
+        return graph.id(index);
+    }
 
-        Utils.writeObject(ADD, new HashMap<File, String>());
-        Utils.writeObject(DELETE, new ArrayList<File>());
-
+    /** Returns the commit at the head of the current branch. */
+    static Commits headCommit() {
+        String headBranch = Utils.readContentsAsString(HEAD);
+        String commitID = Utils.readContentsAsString(
+                Utils.join(BRANCHES, headBranch));
+        return Commits.load(commitID);
     }
 
     /** Creates a .gitlet folder where all files will be held.
@@ -124,114 +262,121 @@ public class Main {
 
         setupPersistance();
         Commits initialCommit = new Commits("initial commit",
-                new HashMap<String, String>(), null);
-        File commit = Utils.join(COMMITS, initialCommit.getCommitID());
-        try {
-            commit.createNewFile();
-        } catch (IOException e) {
-            return;
-        }
-
+                new Tree().save(), null);
         initialCommit.setCommitFirstDate();
 
-        Utils.writeObject(commit, initialCommit);
-        File master = Utils.join(BRANCHES, "master");
-
-        try {
-            master.createNewFile();
-        } catch (IOException e) {
-            return;
-        }
-        Utils.writeContents(master, initialCommit.getCommitID());
-        try {
-            HEAD.createNewFile();
-        } catch (IOException e) {
-            return;
-        }
-        Utils.writeContents(HEAD, "master");
+        initialCommit.save();
+        CommitGraph.append(initialCommit);
+        Journal.update(Utils.join(BRANCHES, "master"), null,
+                initialCommit.getCommitID());
+        Journal.update(HEAD, "master");
     }
 
     /** Commits files, default are the parent files.
      * @param message */
     public static void commit(String message) {
+        commit(message, null, Index.read());
+    }
+
+    /** Makes a commit with MESSAGE of the changes staged in INDEX, whose
+     *  second parent is the commit named SECONDPARENT, or an ordinary
+     *  commit if it is null. */
+    private static void commit(String message, String secondParent,
+                               Index index) {
         if (message.equals("")) {
             System.out.println("Please enter a commit message.");
+            return;
         }
 
         String headBranch = Utils.readContentsAsString(HEAD);
         String commitID = Utils.readContentsAsString(
                 Utils.join(BRANCHES, headBranch));
-        Commits parentCommit = Utils.readObject(
-                Utils.join(COMMITS, commitID), Commits.class);
+        Commits parentCommit = Commits.load(commitID);
 
-        HashMap parentBlob = parentCommit.files();
-        HashMap newBlob = Utils.readObject(ADD, HashMap.class);
-        if (parentBlob.equals(newBlob)) {
+        TreeMap<String, String> changes = index.changes();
+        if (changes.isEmpty()) {
             System.out.println("No changes added to the commit.");
-        } else {
-            parentBlob.putAll(newBlob);
-        }
-
-        ArrayList deletedBlobs = Utils.readObject(DELETE, ArrayList.class);
-        for (int i = 0; i < deletedBlobs.size(); i += 1) {
-            parentBlob.remove(deletedBlobs.get(i));
+            return;
         }
-
-        Utils.writeObject(ADD, new HashMap<File, String>());
-        Utils.writeObject(DELETE, new ArrayList<File>());
+        index.committed();
+        index.write();
 
         Commits newCommit = new Commits(message,
-                parentBlob, parentCommit.getCommitID());
+                Tree.update(parentCommit.getTreeSha(), changes),
+                parentCommit.getCommitID(), secondParent);
 
-        File serCommit = Utils.join(COMMITS, newCommit.getCommitID());
-        try {
-            serCommit.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        Utils.writeObject(serCommit, newCommit);
-        Utils.writeContents(Utils.join(BRANCHES, headBranch),
+        newCommit.save();
+        CommitGraph.append(newCommit);
+        MessageIndex.update(CommitGraph.open());
+        Journal.update(Utils.join(BRANCHES, headBranch), commitID,
                 newCommit.getCommitID());
 
     }
 
-    /** Adds a copy of the file as it currently exists to
-     * the staging area. These added files will be commited.
-     * @param fileName */
-    public static void add(String fileName) throws IOException {
+    /** Adds a copy of each file as it currently exists to
+     * the staging area. These added files will be commited. A
+     * directory, including ".", adds every file under it. Files whose
+     * stat data shows them unchanged are skipped; the rest are hashed
+     * and stored in parallel, and the index is written once. Paths
+     * outside a sparse checkout are neither listed nor added.
+     * @param fileNames */
+    public static void add(String... fileNames) {
+        TreeMap<String, File> toAdd = new TreeMap<>();
+        Sparse sparse = Sparse.read();
+        for (String fileName : fileNames) {
+            String path = Paths.get(fileName).normalize().toString()
+                    .replace(File.separatorChar, '/');
+            File file = Utils.join(CURRENTDIRECTORY, path).getAbsoluteFile();
+            if (!sparse.enters(path)) {
+                System.out.println("File is outside the sparse checkout.");
+                return;
+            } else if (file.isDirectory()) {
+                long start = Trace.start();
+                ArrayList<String> found = new ArrayList<>();
+                listFiles(file,
+                        path.isEmpty() ? "" : path + "/", sparse, found);
+                Trace.end(Trace.LIST, start, 0);
+                for (String name : found) {
+                    toAdd.put(name, Utils.join(CURRENTDIRECTORY, name));
+                }
+            } else if (file.isFile() && sparse.includes(path)) {
+                toAdd.put(path, file);
+            } else if (file.isFile()) {
+                System.out.println("File is outside the sparse checkout.");
+                return;
+            } else {
+                System.out.println("File does not exist.");
+                return;
+            }
+        }
 
-        File toAdd = new File(fileName);
-        if (!(toAdd.exists())) {
-            System.out.println("File does not exist.");
+        Index index = Index.read();
+        ArrayList<String> toHash = new ArrayList<>();
+        for (String path : toAdd.keySet()) {
+            Index.Entry entry = index.get(path);
+            if (entry == null || entry.sha() == null
+                    || !index.unchanged(entry, toAdd.get(path))) {
+                toHash.add(path);
+            }
+        }
+        if (toHash.isEmpty()) {
             return;
         }
-
-        HashMap staging = Utils.readObject(ADD, HashMap.class);
-        Blob toAddBlob = new Blob(fileName);
-
-        String toAddBlobSha = toAddBlob.saveBlob();
-        staging.put(fileName, toAddBlobSha);
-
-
-        String headBranch = Utils.readContentsAsString(HEAD);
-        String commitID = Utils.readContentsAsString(
-                Utils.join(BRANCHES, headBranch));
-        Commits parentCommit = Utils.readObject(
-                Utils.join(COMMITS, commitID), Commits.class);
-
-        HashMap parentFiles = parentCommit.files();
-
-        if (parentFiles.containsKey(fileName)) {
-            if (toAddBlobSha.equals(parentFiles.get(fileName))) {
-                staging.remove(fileName);
+        ForkJoinPool pool = new ForkJoinPool(Restore.workers());
+        try {
+            Map<String, String> hashed = pool.submit(() ->
+                    toHash.parallelStream().collect(Collectors.toMap(
+                            path -> path,
+                            path -> new Blob(path).saveBlob()))).get();
+            for (String path : toHash) {
+                index.stage(path, hashed.get(path), toAdd.get(path));
             }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
         }
-
-        ArrayList toBeRead = Utils.readObject(DELETE, ArrayList.class);
-        toBeRead.remove(fileName);
-        Utils.writeObject(ADD, staging);
-        Utils.writeObject(DELETE, toBeRead);
-
+        index.write();
     }
 
     /** First Checkout: Takes the version
@@ -248,37 +393,30 @@ public class Main {
             String headBranch = Utils.readContentsAsString(HEAD);
             String commitID = Utils.readContentsAsString(
                     Utils.join(BRANCHES, headBranch));
-            Commits parentCommit = Utils.readObject(
-                    Utils.join(COMMITS, commitID), Commits.class);
-            HashMap parentFiles = parentCommit.files();
-            if (!parentFiles.containsKey(fileName)) {
+            Commits parentCommit = Commits.load(commitID);
+            String blobShaName = Tree.blobAt(
+                    parentCommit.getTreeSha(), fileName);
+            if (blobShaName == null) {
                 System.out.println("File does not exist in that commit.");
                 return;
             }
-            String blobShaName = (String) parentFiles.get(fileName);
-            Blob contentsOfParent = Utils.readObject(
-                    Utils.join(BLOBS, blobShaName), Blob.class);
-            Utils.writeContents(fileToUpdate, contentsOfParent.getContents());
+            Blob.restore(blobShaName, fileToUpdate);
         }
         if (args.length == 4) {
-            String commitID = args[1];
-            if (commitID.equals("")) {
-                System.out.println("No commit with that id exists.");
+            String commitID = resolveCommit(args[1]);
+            if (commitID == null) {
                 return;
             }
             String fileName = args[3];
             File fileToUpdate = new File(fileName);
-            Commits parentCommit = Utils.readObject(
-                    Utils.join(COMMITS, commitID), Commits.class);
-            HashMap parentFiles = parentCommit.files();
-            if (!parentFiles.containsKey(fileName)) {
+            Commits parentCommit = Commits.load(commitID);
+            String blobShaName = Tree.blobAt(
+                    parentCommit.getTreeSha(), fileName);
+            if (blobShaName == null) {
                 System.out.println("File does not exist in that commit.");
                 return;
             }
-            String blobShaName = (String) parentFiles.get(fileName);
-            Blob contentsOfParent = Utils.readObject(
-                    Utils.join(BLOBS, blobShaName), Blob.class);
-            Utils.writeContents(fileToUpdate, contentsOfParent.getContents());
+            Blob.restore(blobShaName, fileToUpdate);
         }
         if (args.length == 2) {
             checkout3(args);
@@ -292,8 +430,7 @@ public class Main {
         String headBranch = Utils.readContentsAsString(HEAD);
         String commitID = Utils.readContentsAsString(
                 Utils.join(BRANCHES, headBranch));
-        Commits parentCommit = Utils.readObject(
-                Utils.join(COMMITS, commitID), Commits.class);
+        Commits parentCommit = Commits.load(commitID);
         if (branchName.equals(headBranch)) {
             System.out.println("No need to checkout the current branch.");
             return;
@@ -305,65 +442,220 @@ public class Main {
         }
         String commitChBranch = Utils.readContentsAsString(
                 Utils.join(BRANCHES, branchName));
-        Commits commitCh = Utils.readObject(
-                Utils.join(COMMITS, commitChBranch), Commits.class);
-        for (String file : commitCh.files().keySet()) {
-            File fileA = Utils.join(CURRENTDIRECTORY, file);
-            if (fileA.exists() && !parentCommit.files().containsKey(file)) {
+        Commits commitCh = Commits.load(commitChBranch);
+        if (!switchTo(parentCommit, commitCh)) {
+            return;
+        }
+        Journal.update(HEAD, branchName);
+    }
+
+    /** Replaces the files of commit FROM in the working directory with
+     *  those of commit TO. Only the paths that differ between the two
+     *  trees are touched, and of those only the ones in the sparse
+     *  checkout; the index follows the rest without their files.
+     * @return false if an untracked file was in the way */
+    private static boolean switchTo(Commits from, Commits to) {
+        Index index = Index.read();
+        Sparse sparse = Sparse.read();
+        Tree.Changes changes = new Tree.Changes();
+        Tree.diff(from.getTreeSha(), to.getTreeSha(), "", changes);
+        TreeMap<String, String> toWrite = new TreeMap<>();
+        for (Map.Entry<String, String> file : changes.added().entrySet()) {
+            if (!sparse.includes(file.getKey())) {
+                continue;
+            }
+            File fileA = Utils.join(CURRENTDIRECTORY, file.getKey());
+            if (fileA.exists()) {
                 System.out.println("There is an untracked "
                         + "file in the way; delete it, "
                         + "or add and commit it first.");
-                return;
+                return false;
             }
+            toWrite.put(file.getKey(), file.getValue());
         }
-        Utils.writeContents(HEAD, branchName);
-        for (String fileName : commitCh.files().keySet()) {
-            File newFile = Utils.join(CURRENTDIRECTORY, fileName);
-            String blobName = commitCh.files().get(fileName);
-            String blob = Utils.readContentsAsString(
-                    Utils.join(BLOBS, blobName));
-            Utils.writeContents(newFile, blob);
+        ArrayList<String> removed = new ArrayList<>();
+        for (String path : changes.removed()) {
+            if (sparse.includes(path)) {
+                removed.add(path);
+            }
         }
-        for (String fileName : parentCommit.files().keySet()) {
-            if (!commitCh.files().containsKey(fileName)) {
-                File newFile = Utils.join(CURRENTDIRECTORY, fileName);
-                newFile.delete();
+        for (Map.Entry<String, String> file
+                 : changes.modified().entrySet()) {
+            if (sparse.includes(file.getKey())) {
+                toWrite.put(file.getKey(), file.getValue());
             }
         }
+        Restore.run(removed, toWrite, index);
+        index.switched(changes, sparse);
+        index.write();
+        return true;
     }
-    /** Prints out information. */
-    public static void log() {
-
-        SimpleDateFormat sdf = new SimpleDateFormat(
-                "EEE MMM d HH:mm:ss yyyy Z");
 
+    /** Usage: java gitlet.Main merge [branch name]. Merges the files of
+     * the head of BRANCHNAME into the current branch, starting from
+     * their latest common ancestor, and commits the result. Only files
+     * in the sparse checkout are written or deleted; the rest are
+     * merged in the index alone.
+     * @param branchName */
+    public static void merge(String branchName) {
+        Index index = Index.read();
+        if (!index.changes().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        }
+        File branch = Utils.join(BRANCHES, branchName);
+        if (!branch.exists()) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        }
         String headBranch = Utils.readContentsAsString(HEAD);
-        String commitID = Utils.readContentsAsString(
+        if (headBranch.equals(branchName)) {
+            System.out.println("Cannot merge a branch with itself.");
+            return;
+        }
+        String headID = Utils.readContentsAsString(
                 Utils.join(BRANCHES, headBranch));
-        Commits tempCommit = Utils.readObject(
-                Utils.join(COMMITS, commitID), Commits.class);
-
-        while (tempCommit != null) {
-
-            String tempID = tempCommit.getCommitID();
-            String tempDate = sdf.format(tempCommit.getCommitDate());
-            String tempMessage = tempCommit.getMessage();
-
-            System.out.println("===");
-            System.out.println("commit " + tempID);
-            System.out.println("Date: " + tempDate);
-            System.out.println(tempMessage);
-            System.out.println();
-
-            if (tempCommit.getParentSha() == null) {
+        String otherID = Utils.readContentsAsString(branch);
+        CommitGraph graph = CommitGraph.open();
+        String splitID = graph.id(graph.mergeBase(graph.indexOf(headID),
+                graph.indexOf(otherID)));
+        if (splitID.equals(otherID)) {
+            System.out.println("Given branch is an ancestor of the "
+                    + "current branch.");
+            return;
+        }
+        Commits head = Commits.load(headID);
+        Commits other = Commits.load(otherID);
+        if (splitID.equals(headID)) {
+            if (switchTo(head, other)) {
+                Journal.update(Utils.join(BRANCHES, headBranch), headID,
+                        otherID);
+                System.out.println("Current branch fast-forwarded.");
+            }
+            return;
+        }
+        String splitTree = Commits.load(splitID).getTreeSha();
+        TreeMap<String, String> ours = changedFiles(splitTree,
+                head.getTreeSha());
+        TreeMap<String, String> theirs = changedFiles(splitTree,
+                other.getTreeSha());
+
+        TreeMap<String, String> toWrite = new TreeMap<>();
+        ArrayList<String> removed = new ArrayList<>();
+        boolean conflict = false;
+        for (Map.Entry<String, String> file : theirs.entrySet()) {
+            String path = file.getKey();
+            String theirSha = file.getValue();
+            if (!ours.containsKey(path)) {
+                if (theirSha == null) {
+                    removed.add(path);
+                } else {
+                    toWrite.put(path, theirSha);
+                }
+            } else if (!Objects.equals(ours.get(path), theirSha)) {
+                toWrite.put(path, conflictBlob(ours.get(path), theirSha));
+                conflict = true;
+            }
+        }
+        Sparse sparse = Sparse.read();
+        TreeMap<String, String> written = new TreeMap<>();
+        for (Map.Entry<String, String> file : toWrite.entrySet()) {
+            String path = file.getKey();
+            if (!sparse.includes(path)) {
+                continue;
+            } else if (index.get(path) == null
+                    && Utils.join(CURRENTDIRECTORY, path).exists()) {
+                System.out.println("There is an untracked "
+                        + "file in the way; delete it, "
+                        + "or add and commit it first.");
                 return;
             }
+            written.put(path, file.getValue());
+        }
+        ArrayList<String> deleted = new ArrayList<>();
+        for (String path : removed) {
+            if (sparse.includes(path)) {
+                deleted.add(path);
+            }
+        }
+        Restore.run(deleted, written, index);
+        for (String path : removed) {
+            index.remove(path);
+        }
+        for (Map.Entry<String, String> file : toWrite.entrySet()) {
+            if (written.containsKey(file.getKey())) {
+                index.stage(file.getKey(), file.getValue(),
+                        Utils.join(CURRENTDIRECTORY, file.getKey()));
+            } else {
+                index.stage(file.getKey(), file.getValue());
+            }
+        }
+        index.write();
+        commit("Merged " + branchName + " into " + headBranch + ".",
+                otherID, index);
+        if (conflict) {
+            System.out.println("Encountered a merge conflict.");
+        }
+    }
+
+    /** Returns the files that differ between the trees named FROM and
+     *  TO, mapped to their blobs in TO, or to null for files not in TO.
+     *  Subtrees shared by both are not read. */
+    private static TreeMap<String, String> changedFiles(String from,
+                                                        String to) {
+        Tree.Changes changes = new Tree.Changes();
+        Tree.diff(from, to, "", changes);
+        TreeMap<String, String> result = new TreeMap<>(changes.added());
+        result.putAll(changes.modified());
+        for (String path : changes.removed()) {
+            result.put(path, null);
+        }
+        return result;
+    }
+
+    /** Stores and returns the blob that marks a conflict between the
+     *  blobs OURS and THEIRS, either of which may be null for a deleted
+     *  file. */
+    private static String conflictBlob(String ours, String theirs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        if (ours != null) {
+            out.writeBytes(ObjectStore.read(ObjectStore.BLOB, ours));
+        }
+        out.writeBytes("=======\n".getBytes(StandardCharsets.UTF_8));
+        if (theirs != null) {
+            out.writeBytes(ObjectStore.read(ObjectStore.BLOB, theirs));
+        }
+        out.writeBytes(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        byte[] contents = out.toByteArray();
+        String sha1 = Utils.sha1(contents);
+        ObjectStore.write(ObjectStore.BLOB, sha1, contents);
+        return sha1;
+    }
 
-            tempCommit = Utils.readObject(
-                    Utils.join(COMMITS, tempCommit.
-                            getParentSha()), Commits.class);
+    /** Replaces the contents of FILE with CONTENTS in one step, by
+     *  writing a temporary file and renaming it over FILE. */
+    static void writeRef(File file, byte[] contents) {
+        try {
+            Path tmp = Files.createTempFile(GIT.toPath(), "ref", ".tmp");
+            Files.write(tmp, contents);
+            Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
+    /** Usage: java gitlet.Main log [-n COUNT] [--since DATE]
+     * [--until DATE]. Prints the history of the current branch along
+     * first parents, newest first.
+     * @param args */
+    public static void log(String... args) {
+        String headBranch = Utils.readContentsAsString(HEAD);
+        String commitID = Utils.readContentsAsString(
+                Utils.join(BRANCHES, headBranch));
+        CommitGraph graph = CommitGraph.open();
+        printLog(graph, graph.firstParents(graph.indexOf(commitID)), args);
+    }
 
     /** Creates a new branch with name BRANCHNAME.
      * @param branchName */
@@ -382,42 +674,27 @@ public class Main {
         String commitID = Utils.readContentsAsString(
                 Utils.join(BRANCHES, headBranch));
 
-        File newBranch = Utils.join(BRANCHES, branchName);
-        try {
-            newBranch.createNewFile();
-        } catch (IOException e) {
-            return;
-        }
-
-        Utils.writeContents(newBranch, commitID);
+        Journal.update(Utils.join(BRANCHES, branchName), null, commitID);
     }
 
     /** Usage: java gitlet.Main rm [file name].
      * @param fileName */
     public static void rm(String fileName) {
-        String headBranch = Utils.readContentsAsString(HEAD);
-        String commitID = Utils.readContentsAsString(
-                Utils.join(BRANCHES, headBranch));
-        Commits currCommit = Utils.readObject(
-                Utils.join(COMMITS, commitID), Commits.class);
-
-        HashMap contentsToCheck = Utils.readObject(ADD, HashMap.class);
-        boolean inStaging = false;
-        if (contentsToCheck.containsKey(fileName)) {
-            contentsToCheck.remove(fileName);
-            Utils.writeObject(ADD, contentsToCheck);
-            inStaging = true;
-        }
-        if (currCommit.files().get(fileName) != null) {
-            ArrayList toDelete = Utils.readObject(DELETE, ArrayList.class);
-            toDelete.add(fileName);
-            Utils.writeObject(DELETE, toDelete);
-            Utils.restrictedDelete(fileName);
-            inStaging = true;
-        }
-        if (!inStaging) {
+        Index index = Index.read();
+        Index.Entry entry = index.get(fileName);
+        if (entry == null || (!entry.isStaged()
+                && entry.headSha() == null)) {
             System.out.println("No reason to remove the file.");
+            return;
+        }
+        if (entry.headSha() != null) {
+            File toDelete = new File(fileName);
+            if (toDelete.isFile()) {
+                toDelete.delete();
+            }
         }
+        index.remove(fileName);
+        index.write();
     }
 
     /** Usage: java gitlet.Main rm-branch [branch name].
@@ -437,62 +714,238 @@ public class Main {
             return;
         }
 
-        branch.delete();
+        Journal.delete(branch, Utils.readContentsAsString(branch));
 
     }
 
-    /** Usage: java gitlet.Main find [commit message].
-     * @param givenMessage */
-    public static void find(String givenMessage) {
-
-        int num = 0;
+    /** Usage: java gitlet.Main find [commit message], or
+     * find --prefix [word prefix], or find --grep [pattern].
+     * @param args the command line */
+    public static void find(String[] args) {
+        CommitGraph graph = CommitGraph.open();
+        MessageIndex.update(graph);
 
-        List<String> allCommits = Utils.plainFilenamesIn(COMMITS);
-        for (int i = 0; i < allCommits.size(); i += 1) {
-            String commitName = allCommits.get(i);
-            Commits commit = Utils.readObject(
-                    Utils.join(COMMITS, commitName), Commits.class);
-
-            if (commit.getMessage().equals(givenMessage)) {
-                num += 1;
-                System.out.println(commit.getCommitID());
+        TreeSet<Integer> found;
+        if (args.length == 3 && args[1].equals("--grep")) {
+            try {
+                found = MessageIndex.grep(graph, args[2]);
+            } catch (PatternSyntaxException excp) {
+                System.out.println("Invalid pattern: "
+                        + excp.getDescription() + ".");
+                return;
             }
+        } else if (args.length == 3 && args[1].equals("--prefix")) {
+            found = MessageIndex.prefix(graph, args[2]);
+        } else {
+            found = MessageIndex.exact(graph, args[1]);
         }
 
-        if (num == 0) {
+        if (found.isEmpty()) {
             System.out.println(
                     "Found no commit with that message.");
             return;
         }
-
+        for (int i : found) {
+            System.out.println(graph.id(i));
+        }
     }
 
-    /** Usage: java gitlet.Main global-log. */
-    public static void globalLog() {
+    /** Usage: java gitlet.Main global-log [-n COUNT] [--since DATE]
+     * [--until DATE]. Prints every commit ever made, from the commit
+     * graph, in the order they were made.
+     * @param args */
+    public static void globalLog(String... args) {
+        CommitGraph graph = CommitGraph.open();
+        printLog(graph, graph.all(), args);
+    }
 
-        SimpleDateFormat sdf = new SimpleDateFormat(
-                "EEE MMM d HH:mm:ss yyyy Z");
+    /** Prints the COMMITS of GRAPH, in order, limited by the options in
+     * ARGS (after the command name): -n COUNT prints at most COUNT
+     * commits, and --since and --until DATE keep only commits made on
+     * or after, or on or before, DATE. A DATE is yyyy-mm-dd, which for
+     * --until covers that whole day, or yyyy-mm-ddThh:mm[:ss]. Commits
+     * are read only as they are printed, through one large buffer, and
+     * printing stops as soon as the output is closed. */
+    private static void printLog(CommitGraph graph,
+                                 PrimitiveIterator.OfInt commits,
+                                 String[] args) {
+        long limit = Long.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        try {
+            for (int k = 1; k < args.length; k += 2) {
+                if (k + 1 == args.length) {
+                    throw new IllegalArgumentException();
+                } else if (args[k].equals("-n")) {
+                    limit = Long.parseLong(args[k + 1]);
+                } else if (args[k].equals("--since")) {
+                    since = parseDate(args[k + 1], false);
+                } else if (args[k].equals("--until")) {
+                    until = parseDate(args[k + 1], true);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Writer out = output();
+        StringBuilder entry = new StringBuilder();
+        try {
+            for (long printed = 0; printed < limit && commits.hasNext();) {
+                int i = commits.nextInt();
+                long time = graph.time(i);
+                if (time < since || time > until) {
+                    continue;
+                }
+                entry.setLength(0);
+                entry.append("===\ncommit ").append(graph.id(i))
+                        .append('\n');
+                if (graph.parent2(i) != CommitGraph.NONE) {
+                    entry.append("Merge: ")
+                            .append(graph.id(graph.parent(i)), 0, 7)
+                            .append(' ')
+                            .append(graph.id(graph.parent2(i)), 0, 7)
+                            .append('\n');
+                }
+                entry.append("Date: ").append(DATE_FORMAT.format(
+                        Instant.ofEpochMilli(time)))
+                        .append('\n').append(graph.message(i))
+                        .append("\n\n");
+                out.append(entry);
+                printed += 1;
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
 
-        List<String> allCommits = Utils.plainFilenamesIn(COMMITS);
-        for (int i = 0; i < allCommits.size(); i += 1) {
-            String commitName = allCommits.get(i);
-            Commits tempCommit = Utils.readObject(
-                    Utils.join(COMMITS, commitName), Commits.class);
+    /** Returns a buffered writer to System.out whose writes fail once
+     *  System.out does, as when a pager reading it quits, so that long
+     *  output can stop early. */
+    private static Writer output() {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FilterOutputStream(System.out) {
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                        throws IOException {
+                        out.write(b, off, len);
+                        if (System.out.checkError()) {
+                            throw new IOException("Output closed.");
+                        }
+                    }
+                }, StandardCharsets.UTF_8), 1 << 16);
+    }
 
-            String tempID = tempCommit.getCommitID();
-            String tempDate = sdf.format(tempCommit.getCommitDate());
-            String tempMessage = tempCommit.getMessage();
+    /** Usage: java gitlet.Main diff, diff --cached, or diff [commit id]
+     * [commit id]. Shows how the working files differ from the index,
+     * how the index differs from the head commit, or how the second
+     * commit differs from the first. Files whose blobs are the same are
+     * never read.
+     * @param args the command line */
+    public static void diff(String[] args) {
+        if (!GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        // Each changed path, mapped to its old and new side as open
+        // takes them.
+        TreeMap<String, String[]> changed = new TreeMap<>();
+        Index index = Index.read();
+        if (args.length == 1) {
+            Sparse sparse = Sparse.read();
+            for (Index.Entry entry : index.entries().values()) {
+                File file = Utils.join(CURRENTDIRECTORY, entry.path());
+                if (entry.sha() != null && sparse.includes(entry.path())
+                        && !index.matches(entry, file)) {
+                    changed.put(entry.path(), new String[] {entry.sha(),
+                        file.isFile() ? null : ""});
+                }
+            }
+        } else if (args.length == 2 && args[1].equals("--cached")) {
+            for (Map.Entry<String, String> change
+                     : index.changes().entrySet()) {
+                String headSha = index.get(change.getKey()).headSha();
+                changed.put(change.getKey(), new String[] {
+                    headSha == null ? "" : headSha,
+                    change.getValue() == null ? "" : change.getValue()});
+            }
+        } else if (args.length == 3) {
+            String from = resolveCommit(args[1]);
+            String to = from == null ? null : resolveCommit(args[2]);
+            if (to == null) {
+                return;
+            }
+            String fromTree = Commits.load(from).getTreeSha();
+            Tree.Changes changes = new Tree.Changes();
+            Tree.diff(fromTree, Commits.load(to).getTreeSha(), "", changes);
+            for (Map.Entry<String, String> file
+                     : changes.added().entrySet()) {
+                changed.put(file.getKey(),
+                        new String[] {"", file.getValue()});
+            }
+            for (Map.Entry<String, String> file
+                     : changes.modified().entrySet()) {
+                changed.put(file.getKey(), new String[] {
+                    Tree.blobAt(fromTree, file.getKey()), file.getValue()});
+            }
+            for (String path : changes.removed()) {
+                changed.put(path, new String[] {
+                    Tree.blobAt(fromTree, path), ""});
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Writer out = output();
+        try {
+            for (Map.Entry<String, String[]> file : changed.entrySet()) {
+                String path = file.getKey();
+                String[] blobs = file.getValue();
+                Diff.write(path, open(path, blobs[0]), open(path, blobs[1]),
+                        out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
 
-            System.out.println("===");
-            System.out.println("commit " + tempID);
-            System.out.println("Date: " + tempDate);
-            System.out.println(tempMessage);
-            System.out.println();
+    /** Returns a stream of one side of a diff of the file PATH: the blob
+     *  named SHA1, nothing if SHA1 is empty, or the working file if SHA1
+     *  is null. */
+    private static InputStream open(String path, String sha1)
+        throws IOException {
+        if (sha1 == null) {
+            return Files.newInputStream(
+                    Utils.join(CURRENTDIRECTORY, path).toPath());
+        } else if (sha1.isEmpty()) {
+            return null;
+        }
+        return ObjectStore.open(ObjectStore.BLOB, sha1);
+    }
 
+    /** Returns the time in milliseconds named by DATE, in the local time
+     * zone. A DATE without a time of day is the start of that day, or
+     * the end of it if END. */
+    private static long parseDate(String date, boolean end) {
+        ZoneId zone = ZoneId.systemDefault();
+        if (date.indexOf('T') < 0) {
+            LocalDate day = LocalDate.parse(date);
+            if (end) {
+                return day.plusDays(1).atStartOfDay(zone)
+                        .toInstant().toEpochMilli() - 1;
+            }
+            return day.atStartOfDay(zone).toInstant().toEpochMilli();
         }
+        return LocalDateTime.parse(date).atZone(zone).toInstant()
+                .toEpochMilli();
     }
 
-    /** Usage: java gitlet.Main status. */
+    /** Usage: java gitlet.Main status. Never waits for a lock: the stat
+     *  data it refreshed is only saved if the staging lock was free. */
     public static void status() {
 
         if (!GIT.exists()) {
@@ -503,7 +956,7 @@ public class Main {
         String headBranch = Utils.readContentsAsString(HEAD);
         List<String> allBranches =
                 Utils.plainFilenamesIn(BRANCHES);
-        ArrayList branches = new ArrayList();
+        ArrayList<String> branches = new ArrayList<>();
         branches.addAll(allBranches);
 
         branches.remove(headBranch);
@@ -517,37 +970,142 @@ public class Main {
         }
         System.out.println();
 
-        HashMap stagedHash = Utils.readObject(ADD, HashMap.class);
-        Set stagedSet = stagedHash.keySet();
-        List<String> stagedFiles = new ArrayList<String>();
-
-        for (Object file : stagedSet) {
-            stagedFiles.add((String) file);
-        }
-        sort(stagedFiles);
-
+        Index index = Index.read();
         System.out.println("=== Staged Files ===");
-        for (int i = 0; i < stagedFiles.size(); i += 1) {
-            System.out.println(stagedFiles.get(i));
+        for (Index.Entry entry : index.entries().values()) {
+            if (entry.isStaged()) {
+                System.out.println(entry.path());
+            }
         }
         System.out.println();
 
-        ArrayList<String> deletedFiles =
-                Utils.readObject(DELETE, ArrayList.class);
-        sort(deletedFiles);
-
         System.out.println("=== Removed Files ===");
-        for (int i = 0; i < deletedFiles.size(); i += 1) {
-            System.out.println(deletedFiles.get(i));
+        for (Index.Entry entry : index.entries().values()) {
+            if (entry.isRemoved()) {
+                System.out.println(entry.path());
+            }
         }
         System.out.println();
 
         System.out.println("=== Modifications Not "
                 + "Staged For Commit ===");
+        Sparse sparse = Sparse.read();
+        for (Index.Entry entry : index.entries().values()) {
+            if (entry.sha() == null || !sparse.includes(entry.path())) {
+                continue;
+            }
+            File file = Utils.join(CURRENTDIRECTORY, entry.path());
+            if (!file.isFile()) {
+                System.out.println(entry.path() + " (deleted)");
+            } else if (!index.matches(entry, file)) {
+                System.out.println(entry.path() + " (modified)");
+            }
+        }
         System.out.println();
 
         System.out.println("=== Untracked Files ===");
+        for (String path : workingFiles()) {
+            Index.Entry entry = index.get(path);
+            if (entry == null || entry.sha() == null) {
+                System.out.println(path);
+            }
+        }
+        System.out.println();
+
+        if (index.refreshed() && Locks.holdsStaging()) {
+            index.write();
+        }
+    }
 
+    /** Returns the paths of all files in the working directory outside
+     *  .gitlet and inside the sparse checkout, relative to it and in
+     *  order. */
+    static List<String> workingFiles() {
+        long start = Trace.start();
+        ArrayList<String> result = new ArrayList<>();
+        listFiles(CURRENTDIRECTORY.getAbsoluteFile(), "", Sparse.read(),
+                result);
+        Trace.end(Trace.LIST, start, 0);
+        return result;
+    }
+
+    /** Adds the files under DIR that SPARSE includes to RESULT, named
+     *  with PREFIX. Directories SPARSE has nothing in are not listed. */
+    private static void listFiles(File dir, String prefix, Sparse sparse,
+                                  List<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        sort(Arrays.asList(names));
+        for (String name : names) {
+            if (prefix.isEmpty() && name.equals(".gitlet")) {
+                continue;
+            }
+            File file = new File(dir, name);
+            String path = prefix + name;
+            if (file.isDirectory()) {
+                if (sparse.enters(path)) {
+                    listFiles(file, path + "/", sparse, result);
+                }
+            } else if (file.isFile() && sparse.includes(path)) {
+                result.add(path);
+            }
+        }
+    }
+
+    /** Usage: java gitlet.Main migrate. Rewrites every commit stored by
+     * Java serialization in the binary encoding. Their ids change, so
+     * their descendants are rewritten too, the branches are moved to
+     * the new ids, and the commit graph and message index are rebuilt.
+     * A repository of the first version of gitlet, which had no trees,
+     * is converted by Baseline first. */
+    public static void migrate() {
+        int converted = Baseline.convert();
+        if (converted < 0) {
+            return;
+        }
+        CommitGraph graph = CommitGraph.open();
+        HashMap<String, String> renamed = new HashMap<>();
+        for (int i = 0; i < graph.size(); i += 1) {
+            String id = graph.id(i);
+            Commits commit = Commits.load(id);
+            Commits migrated = commit.migrated(renamed);
+            if (migrated != commit) {
+                migrated.save();
+                renamed.put(id, migrated.getCommitID());
+            }
+        }
+        if (renamed.isEmpty() && converted == 0) {
+            System.out.println("Nothing to migrate.");
+            return;
+        }
+        for (String branch : Utils.plainFilenamesIn(BRANCHES)) {
+            File ref = Utils.join(BRANCHES, branch);
+            String id = Utils.readContentsAsString(ref);
+            if (renamed.containsKey(id)) {
+                Journal.update(ref, id, renamed.get(id));
+            }
+        }
+        Journal.commit();
+        boolean packed = false;
+        for (String id : renamed.keySet()) {
+            if (!Utils.join(COMMITS, id).delete()) {
+                packed = true;
+            }
+        }
+        if (packed) {
+            ObjectStore.repack(renamed.keySet());
+        }
+        GRAPH.delete();
+        COMMIT_IDS.delete();
+        MESSAGES.delete();
+        MESSAGE_INDEX.delete();
+        MESSAGE_LOG.delete();
+        CommitGraph.rebuild();
+        MessageIndex.update(CommitGraph.open());
+        System.out.println("Migrated " + (converted + renamed.size())
+                + " commits.");
     }
 
     /** Usage: java gitlet.Main reset [commit id].
@@ -556,51 +1114,107 @@ public class Main {
 
         Commits commitCh;
 
-        List<String> allCommits = Utils.
-                plainFilenamesIn(COMMITS);
-        if (!allCommits.contains(givenID)) {
-            System.out.println(
-                    "No commit with that id exists.");
+        givenID = resolveCommit(givenID);
+        if (givenID == null) {
             return;
         }
 
         String headBranch = Utils.readContentsAsString(HEAD);
         String commitID = Utils.readContentsAsString(
                 Utils.join(BRANCHES, headBranch));
-        Commits parentCommit = Utils.readObject(
-                Utils.join(COMMITS, commitID), Commits.class);
+        Commits parentCommit = Commits.load(commitID);
 
-        commitCh = Utils.readObject(Utils.join(
-                COMMITS, givenID), Commits.class);
+        commitCh = Commits.load(givenID);
 
-        for (String file : commitCh.files().keySet()) {
-            File fileA = Utils.join(CURRENTDIRECTORY, file);
-            if (fileA.exists() && !parentCommit.files().containsKey(file)) {
-                System.out.println("There is an untracked file in "
-                        + "the way; delete it, or add and commit it first.");
-                return;
-            }
+        if (!switchTo(parentCommit, commitCh)) {
+            return;
         }
+        Journal.update(Utils.join(BRANCHES, headBranch), commitID,
+                givenID);
+
+    }
 
-        for (String fileName : commitCh.files().keySet()) {
-            File newFile = Utils.join(CURRENTDIRECTORY, fileName);
-            String blobName = commitCh.files().get(fileName);
-            String blob = Utils.readContentsAsString(
-                    Utils.join(BLOBS, blobName));
-            Utils.writeContents(newFile, blob);
+    /** Usage: java gitlet.Main fast-import < STREAM. Imports the
+     *  commits of a git fast-import stream read from standard input, and
+     *  moves the branches it writes. If the current branch moves, the
+     *  working directory is switched to its new commit; if an untracked
+     *  file is in the way, no branch moves. */
+    public static void fastImport() {
+        Index index = Index.read();
+        if (!index.changes().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
         }
-        for (String fileName : parentCommit.files().keySet()) {
-            if (!commitCh.files().containsKey(fileName)) {
-                File newFile = Utils.join(CURRENTDIRECTORY, fileName);
-                newFile.delete();
-            }
+        String headBranch = Utils.readContentsAsString(HEAD);
+        String before = Utils.readContentsAsString(
+                Utils.join(BRANCHES, headBranch));
+        String after;
+        try {
+            after = FastImport.run(System.in).get(headBranch);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            Journal.abort();
+            return;
         }
-        File file = Utils.join(BRANCHES, headBranch);
-        Utils.writeContents(file, givenID);
-
-        Utils.writeObject(ADD, new HashMap<File, String>());
-        Utils.writeObject(DELETE, new ArrayList<File>());
+        if (after != null && !switchTo(Commits.load(before),
+                Commits.load(after))) {
+            Journal.abort();
+            System.out.println("No branches were updated. The imported "
+                    + "commits are kept, so the import can be run again.");
+        }
+    }
 
+    /** Usage: java gitlet.Main sparse [path ...]. Limits the working
+     *  directory to the files and directories PATTERNS name, deleting
+     *  the tracked files that fall outside them and restoring the ones
+     *  that come back in. With no PATTERNS, prints the current ones;
+     *  "--disable" includes every path again. */
+    public static void sparse(String... patterns) {
+        Sparse old = Sparse.read();
+        if (patterns.length == 0) {
+            for (String pattern : old.patterns()) {
+                System.out.println(pattern);
+            }
+            return;
+        }
+        Sparse sparse;
+        try {
+            sparse = patterns.length == 1 && patterns[0].equals("--disable")
+                    ? Sparse.ALL : Sparse.of(patterns);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            return;
+        }
+        Index index = Index.read();
+        ArrayList<String> removed = new ArrayList<>();
+        TreeMap<String, String> toWrite = new TreeMap<>();
+        for (Index.Entry entry : index.entries().values()) {
+            String path = entry.path();
+            boolean was = old.includes(path);
+            boolean now = sparse.includes(path);
+            File file = Utils.join(CURRENTDIRECTORY, path);
+            if (entry.sha() == null || was == now) {
+                continue;
+            } else if (was && file.isFile() && !index.matches(entry, file)) {
+                System.out.println("There are changes to " + path
+                        + " that would be lost; add and commit them first.");
+                return;
+            } else if (now && file.exists()) {
+                System.out.println("There is an untracked "
+                        + "file in the way; delete it, "
+                        + "or add and commit it first.");
+                return;
+            } else if (was) {
+                removed.add(path);
+            } else {
+                toWrite.put(path, entry.sha());
+            }
+        }
+        Restore.run(removed, toWrite, index);
+        index.restat(removed);
+        index.restat(toWrite.keySet());
+        index.write();
+        sparse.write();
     }
 
 
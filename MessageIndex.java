@@ -0,0 +1,322 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** Inverted index from commit messages to commits, used by find. Each
+ *  posting pairs a 64-bit hash of a key with the commit-graph index of a
+ *  commit whose message has that key. Keys are the whole message, every
+ *  prefix (up to PREFIX_MAX characters) of every word, and every
+ *  trigram of the lower-cased message. New postings are appended to a
+ *  small unsorted log, which is merged into a sorted table once it
+ *  grows past LOG_LIMIT, so a lookup is a binary search plus a short
+ *  scan. Hashes can collide, so candidates are always checked against
+ *  the message held in the commit graph.
+ *  @author Cassandra Calciano
+ */
+class MessageIndex {
+
+    /** Marks the start of the sorted table. */
+    private static final int MAGIC = 0x474d5358;
+
+    /** Version of the index format written by this class. */
+    private static final int VERSION = 1;
+
+    /** Bytes before the first record of the table: magic, version and
+     *  the number of commits indexed. */
+    private static final int HEADER = 12;
+
+    /** Bytes in one posting. */
+    private static final int RECORD = 8 + 4;
+
+    /** Postings the log may hold before it is merged into the table. */
+    private static final int LOG_LIMIT = 4096;
+
+    /** Longest word prefix that gets its own key. */
+    private static final int PREFIX_MAX = 8;
+
+    /** Length of the n-grams used for substring search. */
+    private static final int GRAM = 3;
+
+    /** Brings the index up to date with GRAPH, indexing every commit
+     *  not yet covered. An index that covers more commits than GRAPH
+     *  holds, as after a crash cut the graph short, is built again. */
+    static void update(CommitGraph graph) {
+        ByteBuffer table = map(Main.MESSAGE_INDEX);
+        int covered = table.limit() >= HEADER ? table.getInt(8) : 0;
+        ByteBuffer log = map(Main.MESSAGE_LOG);
+        for (int i = 0; i + RECORD <= log.limit(); i += RECORD) {
+            covered = Math.max(covered, log.getInt(i + 8) + 1);
+        }
+        if (covered > graph.size()) {
+            Main.MESSAGE_INDEX.delete();
+            Main.MESSAGE_LOG.delete();
+            update(graph);
+            return;
+        } else if (covered == graph.size()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream postings = new DataOutputStream(bytes);
+        try {
+            for (int i = covered; i < graph.size(); i += 1) {
+                for (String key : keys(graph.message(i))) {
+                    postings.writeLong(hash(key));
+                    postings.writeInt(i);
+                }
+            }
+            postings.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (log.limit() + bytes.size() > LOG_LIMIT * RECORD) {
+            merge(table, log, bytes.toByteArray(), graph.size());
+        } else {
+            append(bytes.toByteArray());
+        }
+    }
+
+    /** Returns the indices of the commits of GRAPH whose message is
+     *  exactly MESSAGE. */
+    static TreeSet<Integer> exact(CommitGraph graph, String message) {
+        TreeSet<Integer> result = new TreeSet<>();
+        for (int i : lookup("m:" + message)) {
+            if (graph.message(i).equals(message)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the indices of the commits of GRAPH with a word in their
+     *  message that starts with PREFIX, ignoring case. */
+    static TreeSet<Integer> prefix(CommitGraph graph, String prefix) {
+        String want = prefix.toLowerCase(Locale.ROOT);
+        String key = want.substring(0, Math.min(want.length(), PREFIX_MAX));
+        TreeSet<Integer> result = new TreeSet<>();
+        for (int i : lookup("w:" + key)) {
+            for (String word : words(graph.message(i))) {
+                if (word.startsWith(want)) {
+                    result.add(i);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the indices of the commits of GRAPH whose message matches
+     *  the regular expression PATTERN somewhere. A pattern that is plain
+     *  text of at least GRAM characters is narrowed to the commits that
+     *  have all of its trigrams, ignoring case; any other pattern is
+     *  tried against every message in the graph. */
+    static TreeSet<Integer> grep(CommitGraph graph, String pattern) {
+        Pattern regex = Pattern.compile(pattern);
+        TreeSet<Integer> candidates = null;
+        if (pattern.length() >= GRAM && isLiteral(pattern)) {
+            for (String gram : grams(pattern)) {
+                TreeSet<Integer> hits = new TreeSet<>(lookup("g:" + gram));
+                if (candidates != null) {
+                    hits.retainAll(candidates);
+                }
+                candidates = hits;
+                if (candidates.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        TreeSet<Integer> result = new TreeSet<>();
+        if (candidates == null) {
+            for (int i = 0; i < graph.size(); i += 1) {
+                if (regex.matcher(graph.message(i)).find()) {
+                    result.add(i);
+                }
+            }
+        } else {
+            for (int i : candidates) {
+                if (regex.matcher(graph.message(i)).find()) {
+                    result.add(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true if PATTERN has no regular-expression syntax. */
+    private static boolean isLiteral(String pattern) {
+        for (char c : pattern.toCharArray()) {
+            if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the keys under which a commit with MESSAGE is indexed. */
+    private static List<String> keys(String message) {
+        TreeSet<String> keys = new TreeSet<>();
+        keys.add("m:" + message);
+        for (String word : words(message)) {
+            for (int n = 1; n <= Math.min(word.length(), PREFIX_MAX); n += 1) {
+                keys.add("w:" + word.substring(0, n));
+            }
+        }
+        for (String gram : grams(message)) {
+            keys.add("g:" + gram);
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /** Returns the lower-cased words of MESSAGE. */
+    private static List<String> words(String message) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String word : message.toLowerCase(Locale.ROOT)
+                .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the distinct trigrams of TEXT, lower-cased. */
+    private static TreeSet<String> grams(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        TreeSet<String> result = new TreeSet<>();
+        for (int i = 0; i + GRAM <= lower.length(); i += 1) {
+            result.add(lower.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    /** Returns the 64-bit FNV-1a hash of KEY. */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Returns the commits posted under KEY, in the table or the log. */
+    private static TreeSet<Integer> lookup(String key) {
+        long want = hash(key);
+        TreeSet<Integer> result = new TreeSet<>();
+        ByteBuffer table = map(Main.MESSAGE_INDEX);
+        if (table.limit() >= HEADER) {
+            int lo = 0;
+            int hi = (table.limit() - HEADER) / RECORD;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (table.getLong(HEADER + mid * RECORD) < want) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int pos = HEADER + lo * RECORD;
+                 pos + RECORD <= table.limit()
+                     && table.getLong(pos) == want; pos += RECORD) {
+                result.add(table.getInt(pos + 8));
+            }
+        }
+        ByteBuffer log = map(Main.MESSAGE_LOG);
+        for (int pos = 0; pos + RECORD <= log.limit(); pos += RECORD) {
+            if (log.getLong(pos) == want) {
+                result.add(log.getInt(pos + 8));
+            }
+        }
+        return result;
+    }
+
+    /** Returns FILE mapped read-only, or an empty buffer if it does not
+     *  exist. */
+    private static ByteBuffer map(File file) {
+        if (!file.exists()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends POSTINGS to the log. */
+    private static void append(byte[] postings) {
+        try (FileChannel out = FileChannel.open(Main.MESSAGE_LOG.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buf = ByteBuffer.wrap(postings);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes a new table holding the postings of TABLE, LOG and MORE,
+     *  which cover the first COVERED commits, and empties the log. Only
+     *  the new postings are sorted; they are then merged with the
+     *  already sorted table in one pass. */
+    private static void merge(ByteBuffer table, ByteBuffer log, byte[] more,
+                              int covered) {
+        ByteBuffer fresh = ByteBuffer.allocate(log.limit() + more.length);
+        fresh.put(log.duplicate().rewind()).put(more);
+        int count = fresh.capacity() / RECORD;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = i * RECORD;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(fresh.getLong(a),
+                fresh.getLong(b)));
+        int fromTable = Math.max(0, (table.limit() - HEADER) / RECORD);
+        ByteBuffer out = ByteBuffer.allocate(HEADER
+                + (fromTable + count) * RECORD);
+        out.putInt(MAGIC).putInt(VERSION).putInt(covered);
+        int t = 0;
+        int f = 0;
+        while (t < fromTable || f < count) {
+            int tPos = HEADER + t * RECORD;
+            if (f == count || (t < fromTable
+                    && table.getLong(tPos) <= fresh.getLong(order[f]))) {
+                out.putLong(table.getLong(tPos)).putInt(table.getInt(tPos + 8));
+                t += 1;
+            } else {
+                out.putLong(fresh.getLong(order[f]))
+                        .putInt(fresh.getInt(order[f] + 8));
+                f += 1;
+            }
+        }
+        try {
+            Path tmp = Files.createTempFile(Main.GIT.toPath(), "msgidx",
+                    ".tmp");
+            Files.write(tmp, out.array());
+            Files.move(tmp, Main.MESSAGE_INDEX.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(Main.MESSAGE_LOG.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
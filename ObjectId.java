@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+
+/** The SHA-1 id of an object as a value: its 20 bytes held in three
+ *  fields, so that equals, hashCode and compareTo are a few integer
+ *  operations where the 40-character numeral would hash and compare
+ *  character by character. Ids are kept in this form in memory and
+ *  turned into numerals only where they are written or printed.
+ *  @author Cassandra Calciano
+ */
+final class ObjectId implements Comparable<ObjectId> {
+
+    /** Bytes in an id. */
+    static final int BYTES = 20;
+
+    /** Bytes 0-7 and 8-15 of the id, big-endian. */
+    private final long _high, _middle;
+
+    /** Bytes 16-19 of the id, big-endian. */
+    private final int _low;
+
+    /** The id whose bytes are HIGH, MIDDLE and LOW, in that order. */
+    private ObjectId(long high, long middle, int low) {
+        _high = high;
+        _middle = middle;
+        _low = low;
+    }
+
+    /** Returns the id held in the BYTES bytes of BUF from POS. */
+    static ObjectId of(ByteBuffer buf, int pos) {
+        return new ObjectId(buf.getLong(pos), buf.getLong(pos + 8),
+                buf.getInt(pos + 16));
+    }
+
+    /** Returns the id whose bytes are RAW. */
+    static ObjectId of(byte[] raw) {
+        return of(ByteBuffer.wrap(raw), 0);
+    }
+
+    /** Returns the id written as the hexadecimal numeral HEX. Throws
+     *  IllegalArgumentException if HEX is not the numeral of an id. */
+    static ObjectId parse(String hex) {
+        if (hex.length() != 2 * BYTES) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return new ObjectId(Utils.parseHex(hex, 0, 16),
+                Utils.parseHex(hex, 16, 16),
+                (int) Utils.parseHex(hex, 32, 8));
+    }
+
+    /** Returns the bytes of this id. */
+    byte[] bytes() {
+        return ByteBuffer.allocate(BYTES).putLong(_high).putLong(_middle)
+                .putInt(_low).array();
+    }
+
+    /** Compares this id with the one held in the BYTES bytes of BUF from
+     *  POS, as compareTo would, without making an id of them. */
+    int compareTo(ByteBuffer buf, int pos) {
+        int cmp = Long.compareUnsigned(_high, buf.getLong(pos));
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(_middle, buf.getLong(pos + 8));
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(_low, buf.getInt(pos + 16));
+        }
+        return cmp;
+    }
+
+    /** Returns true if the BYTES bytes of BUF from POS are this id. */
+    boolean matches(ByteBuffer buf, int pos) {
+        return _high == buf.getLong(pos) && _middle == buf.getLong(pos + 8)
+                && _low == buf.getInt(pos + 16);
+    }
+
+    /** Orders ids as unsigned numbers, which is also the order of their
+     *  numerals. */
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(_high, other._high);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(_middle, other._middle);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(_low, other._low);
+        }
+        return cmp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _high == other._high && _middle == other._middle
+                && _low == other._low;
+    }
+
+    /** Returns bits of the id itself, which SHA-1 spreads evenly. */
+    @Override
+    public int hashCode() {
+        return (int) (_high >>> 32);
+    }
+
+    /** Returns the hexadecimal numeral of this id. */
+    @Override
+    public String toString() {
+        char[] hex = new char[2 * BYTES];
+        Utils.putHex(_high, 16, hex, 0);
+        Utils.putHex(_middle, 16, hex, 16);
+        Utils.putHex(_low, 8, hex, 32);
+        return new String(hex);
+    }
+}
@@ -0,0 +1,754 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/** The object store of the repository. Blobs, trees and commits are
+ *  kept either loose, one file per object in their own folder, or in
+ *  packs; every read goes through here and looks in both, so callers
+ *  never need to know where an object lives. A large blob may be stored
+ *  as a manifest of chunks instead, which reads of the blob follow.
+ *  <p>
+ *  Loose objects are compressed by Codec, whose header byte tells how,
+ *  in repositories that have a Main.FORMAT file. Older repositories
+ *  keep bare loose objects until gc has packed them all, which then
+ *  creates the file.
+ *  <p>
+ *  Objects never change once stored, so reads are cached for the life
+ *  of the process: decoded commits and trees in an LRU cache bounded by
+ *  the stored size of its objects, and blob contents in a cache of soft
+ *  references that the collector may clear when memory runs short.
+ *  <p>
+ *  Between beginBatch and endBatch, new objects are not written loose
+ *  but gathered in memory and, every BATCH_LIMIT bytes, written as a
+ *  pack by a background thread while the next batch fills. Reads look in
+ *  the batches first, so the objects of a batch are there for them
+ *  from the moment they are written.
+ *  @author Cassandra Calciano
+ */
+class ObjectStore {
+
+    /** Kind of a blob. */
+    static final int BLOB = 0;
+
+    /** Kind of a tree. */
+    static final int TREE = 1;
+
+    /** Kind of a commit. */
+    static final int COMMIT = 2;
+
+    /** Kind of the chunk list of a chunked blob, named like the blob. */
+    static final int MANIFEST = 3;
+
+    /** Kind of a piece of a chunked blob. */
+    static final int CHUNK = 4;
+
+    /** Most bytes of stored objects kept decoded in the cache. */
+    private static final long CACHE_LIMIT = 32L << 20;
+
+    /** Most bytes of objects a batch gathers before it is packed. */
+    private static final long BATCH_LIMIT = 64L << 20;
+
+    /** The packs of the repository, or null until first needed. */
+    private static List<Pack> _packs;
+
+    /** True if loose objects have Codec headers, or null until first
+     *  needed. */
+    private static Boolean _headed;
+
+    /** Decoded commits and trees, by id, least recently used first. */
+    private static final LinkedHashMap<ObjectId, Decoded> DECODED =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Stored bytes of the objects in DECODED. */
+    private static long _decodedBytes;
+
+    /** Contents of recently read blobs, by id. */
+    private static final Map<ObjectId, SoftReference<byte[]>> BLOB_CACHE =
+        new ConcurrentHashMap<>();
+
+    /** Lookups answered from DECODED and BLOB_CACHE. */
+    private static final AtomicLong HITS = new AtomicLong();
+
+    /** Lookups that had to read the object. */
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /** The batch being filled, or null outside beginBatch and
+     *  endBatch. */
+    private static volatile Batch _batch;
+
+    /** Full batches not yet packed, oldest first. */
+    private static final List<Batch> PACKING = new ArrayList<>();
+
+    /** The packs there were when the batch began, the only ones a new
+     *  object is looked for in before it is added. */
+    private static List<Pack> _before;
+
+    /** The thread that packs full batches. */
+    private static ExecutorService _packer;
+
+    /** The packing of the last full batch, or null. */
+    private static Future<?> _packed;
+
+    /** Guards handing batches to _packer. */
+    private static final Object PACKER = new Object();
+
+    /** Returns the folder that holds loose objects of KIND. */
+    static File dir(int kind) {
+        switch (kind) {
+        case BLOB:
+            return Main.BLOBS;
+        case TREE:
+            return Main.TREES;
+        case MANIFEST:
+            return Main.MANIFESTS;
+        case CHUNK:
+            return Main.CHUNKS;
+        default:
+            return Main.COMMITS;
+        }
+    }
+
+    /** Returns the packs of the repository, opening them once. */
+    static synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            File[] idxFiles = Main.PACKS.listFiles(
+                (dir, name) -> name.endsWith(".idx"));
+            if (idxFiles != null) {
+                for (File idx : idxFiles) {
+                    _packs.add(new Pack(idx));
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Makes the next lookup open the packs and check the format of
+     *  loose objects afresh. */
+    static synchronized void forget() {
+        _packs = null;
+        _headed = null;
+    }
+
+    /** Returns true if loose objects start with a Codec header. */
+    static synchronized boolean headed() {
+        if (_headed == null) {
+            _headed = Main.FORMAT.isFile();
+        }
+        return _headed;
+    }
+
+    /** Returns true if the object of KIND named SHA1 is stored. */
+    static boolean contains(int kind, String sha1) {
+        return stored(kind, sha1)
+                || kind == BLOB && stored(MANIFEST, sha1);
+    }
+
+    /** Returns true if the object of KIND named SHA1 is stored as
+     *  itself, loose or packed. */
+    private static boolean stored(int kind, String sha1) {
+        if (batched(kind, sha1) != null
+                || Utils.join(dir(kind), sha1).isFile()) {
+            return true;
+        }
+        ObjectId id = ObjectId.parse(sha1);
+        for (Pack pack : packs()) {
+            if (pack.find(kind, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the object of KIND named SHA1 as made by DECODER from
+     *  its stored bytes, which is shared with every other caller and
+     *  must not be changed. Throws IllegalArgumentException if there is
+     *  no such object. */
+    @SuppressWarnings("unchecked")
+    static <T> T load(int kind, String sha1, Function<byte[], T> decoder) {
+        ObjectId key = ObjectId.parse(sha1);
+        synchronized (DECODED) {
+            Decoded cached = DECODED.get(key);
+            if (cached != null && cached._kind == kind) {
+                HITS.incrementAndGet();
+                return (T) cached._value;
+            }
+        }
+        MISSES.incrementAndGet();
+        byte[] bytes = fetch(kind, sha1);
+        long start = Trace.start();
+        T value = decoder.apply(bytes);
+        Trace.end(Trace.DECODE, start, bytes.length);
+        remember(kind, key, value, bytes.length);
+        return value;
+    }
+
+    /** Caches VALUE as the decoded form of the object of KIND named
+     *  SHA1, SIZE bytes when stored, so that a load of an object just
+     *  written need not read it back. VALUE must not be changed after. */
+    static void remember(int kind, String sha1, Object value, long size) {
+        remember(kind, ObjectId.parse(sha1), value, size);
+    }
+
+    /** Caches VALUE as the decoded form of the object of KIND named KEY,
+     *  SIZE bytes when stored. */
+    private static void remember(int kind, ObjectId key, Object value,
+                                 long size) {
+        synchronized (DECODED) {
+            Decoded old = DECODED.put(key, new Decoded(kind, value, size));
+            _decodedBytes += size - (old == null ? 0 : old._size);
+            Iterator<Decoded> eldest = DECODED.values().iterator();
+            while (_decodedBytes > CACHE_LIMIT && eldest.hasNext()) {
+                _decodedBytes -= eldest.next()._size;
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Returns the object of KIND named SHA1, which for a blob may be
+     *  shared with other callers and must not be changed. Throws
+     *  IllegalArgumentException if there is none. */
+    static byte[] read(int kind, String sha1) {
+        if (kind != BLOB) {
+            return fetch(kind, sha1);
+        }
+        ObjectId key = ObjectId.parse(sha1);
+        SoftReference<byte[]> ref = BLOB_CACHE.get(key);
+        byte[] contents = ref == null ? null : ref.get();
+        if (contents != null) {
+            HITS.incrementAndGet();
+            return contents;
+        }
+        MISSES.incrementAndGet();
+        contents = fetch(kind, sha1);
+        BLOB_CACHE.put(key, new SoftReference<>(contents));
+        return contents;
+    }
+
+    /** Returns the number of reads answered from the caches. */
+    static long hits() {
+        return HITS.get();
+    }
+
+    /** Returns the number of reads that missed the caches. */
+    static long misses() {
+        return MISSES.get();
+    }
+
+    /** Reads the object of KIND named SHA1 from a loose file or a pack.
+     *  Throws IllegalArgumentException if there is none. */
+    private static byte[] fetch(int kind, String sha1) {
+        byte[] batched = batched(kind, sha1);
+        if (batched != null) {
+            return batched;
+        }
+        File loose = Utils.join(dir(kind), sha1);
+        if (loose.isFile()) {
+            return readLoose(loose);
+        }
+        ObjectId id = ObjectId.parse(sha1);
+        for (Pack pack : packs()) {
+            long offset = pack.find(kind, id);
+            if (offset >= 0) {
+                return pack.read(offset);
+            }
+        }
+        if (kind == BLOB && stored(MANIFEST, sha1)) {
+            return Chunker.join(fetch(MANIFEST, sha1));
+        }
+        throw new IllegalArgumentException("no such object " + sha1);
+    }
+
+    /** Writes the object of KIND named SHA1 to OUT, streaming it. */
+    static void copyTo(int kind, String sha1, FileChannel out)
+        throws IOException {
+        byte[] batched = batched(kind, sha1);
+        if (batched != null) {
+            ByteBuffer buf = ByteBuffer.wrap(batched);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            return;
+        }
+        File loose = Utils.join(dir(kind), sha1);
+        if (loose.isFile()) {
+            copyLoose(loose, out);
+            return;
+        }
+        ObjectId id = ObjectId.parse(sha1);
+        for (Pack pack : packs()) {
+            long offset = pack.find(kind, id);
+            if (offset >= 0) {
+                pack.copyTo(offset, out);
+                return;
+            }
+        }
+        if (kind == BLOB && stored(MANIFEST, sha1)) {
+            Chunker.copyTo(fetch(MANIFEST, sha1), out);
+            return;
+        }
+        throw new IllegalArgumentException("no such object " + sha1);
+    }
+
+    /** Returns a stream of the object of KIND named SHA1. Loose objects
+     *  and chunked blobs are read and decompressed as the stream is;
+     *  packed objects are read whole first, as their deltas must be
+     *  applied. */
+    static InputStream open(int kind, String sha1) {
+        byte[] batched = batched(kind, sha1);
+        if (batched != null) {
+            return new ByteArrayInputStream(batched);
+        }
+        File loose = Utils.join(dir(kind), sha1);
+        if (loose.isFile()) {
+            try {
+                InputStream in = Files.newInputStream(loose.toPath());
+                return headed() ? Codec.decoder(in) : in;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ObjectId id = ObjectId.parse(sha1);
+        for (Pack pack : packs()) {
+            long offset = pack.find(kind, id);
+            if (offset >= 0) {
+                return new ByteArrayInputStream(pack.read(offset));
+            }
+        }
+        if (kind == BLOB && stored(MANIFEST, sha1)) {
+            return Chunker.open(fetch(MANIFEST, sha1));
+        }
+        throw new IllegalArgumentException("no such object " + sha1);
+    }
+
+    /** Returns the object held in the loose file LOOSE. */
+    private static byte[] readLoose(File loose) {
+        byte[] stored = Utils.readContents(loose);
+        return headed() ? Codec.decode(stored) : stored;
+    }
+
+    /** Writes the object held in the loose file LOOSE to OUT, streaming
+     *  it. */
+    private static void copyLoose(File loose, FileChannel out)
+        throws IOException {
+        try (FileChannel in = FileChannel.open(loose.toPath(),
+                StandardOpenOption.READ)) {
+            if (headed()) {
+                Codec.copy(in, out);
+                return;
+            }
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        }
+    }
+
+    /** Returns the size of the object held in the loose file LOOSE. */
+    private static long looseSize(File loose) {
+        if (!headed()) {
+            return loose.length();
+        }
+        try (InputStream in = Files.newInputStream(loose.toPath())) {
+            return Codec.size(in.readNBytes(Codec.HEADER), loose.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as the object of KIND named SHA1, unless it is
+     *  already stored. The object appears whole or not at all. */
+    static void write(int kind, String sha1, byte[] contents) {
+        if (_batch != null) {
+            batch(kind, sha1, contents);
+            return;
+        }
+        if (contains(kind, sha1)) {
+            return;
+        }
+        long start = Trace.start();
+        File object = Utils.join(dir(kind), sha1);
+        try {
+            Path tmp = Files.createTempFile(dir(kind).toPath(), "obj",
+                    ".tmp");
+            Files.write(tmp, headed() ? Codec.encode(contents) : contents);
+            Files.move(tmp, object.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.wrote(object);
+        Trace.end(Trace.STORE, start, contents.length);
+    }
+
+    /** Starts gathering new objects into packs instead of writing them
+     *  loose. */
+    static synchronized void beginBatch() {
+        _before = new ArrayList<>(packs());
+        _packer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "gitlet-packer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _batch = new Batch();
+    }
+
+    /** Packs every object gathered so far, returning once they are all
+     *  durable. */
+    static void flushBatch() {
+        Batch full;
+        synchronized (ObjectStore.class) {
+            full = _batch;
+            if (full._bytes == 0) {
+                full = null;
+            } else {
+                _batch = new Batch();
+                PACKING.add(full);
+            }
+        }
+        if (full != null) {
+            pack(full);
+        }
+        synchronized (PACKER) {
+            await(_packed);
+        }
+    }
+
+    /** Packs every object gathered so far and goes back to writing new
+     *  objects loose. */
+    static void endBatch() {
+        try {
+            flushBatch();
+        } finally {
+            synchronized (ObjectStore.class) {
+                _batch = null;
+                _packer.shutdown();
+                _packer = null;
+                _packed = null;
+                _before = null;
+                PACKING.clear();
+            }
+        }
+    }
+
+    /** Adds CONTENTS, the object of KIND named SHA1, to the batch unless
+     *  it is already there or was stored before the batch began. Objects
+     *  of earlier batches are not looked for, so that adding costs the
+     *  same however many packs the batch has made; gc drops any object
+     *  that ends up packed twice. */
+    private static void batch(int kind, String sha1, byte[] contents) {
+        ObjectId id = ObjectId.parse(sha1);
+        if (Utils.join(dir(kind), sha1).isFile()) {
+            return;
+        }
+        for (Pack pack : _before) {
+            if (pack.find(kind, id) >= 0) {
+                return;
+            }
+        }
+        Batch full;
+        synchronized (ObjectStore.class) {
+            if (batched(kind, id) != null) {
+                return;
+            }
+            _batch._objects.get(kind).put(id, contents);
+            _batch._bytes += contents.length;
+            if (_batch._bytes < BATCH_LIMIT) {
+                return;
+            }
+            full = _batch;
+            _batch = new Batch();
+            PACKING.add(full);
+        }
+        pack(full);
+    }
+
+    /** Has FULL packed in the background once the batch before it is,
+     *  so that at most one full batch waits in memory. */
+    private static void pack(Batch full) {
+        synchronized (PACKER) {
+            await(_packed);
+            _packed = _packer.submit(() -> {
+                ArrayList<Pack.Item> items = new ArrayList<>();
+                for (int kind = BLOB; kind <= CHUNK; kind += 1) {
+                    for (Map.Entry<ObjectId, byte[]> object
+                             : full._objects.get(kind).entrySet()) {
+                        items.add(new BatchItem(kind, object.getKey(),
+                                object.getValue()));
+                    }
+                }
+                Main.PACKS.mkdir();
+                Pack.write(Main.PACKS, items, true);
+                synchronized (ObjectStore.class) {
+                    _packs = null;
+                    PACKING.remove(full);
+                }
+            });
+        }
+    }
+
+    /** Waits for PACKING, if it is not null, to finish. */
+    private static void await(Future<?> packing) {
+        if (packing == null) {
+            return;
+        }
+        try {
+            packing.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        }
+    }
+
+    /** Returns the object of KIND named SHA1 if it is in a batch not yet
+     *  packed, or else null. */
+    private static byte[] batched(int kind, String sha1) {
+        if (_batch == null) {
+            return null;
+        }
+        synchronized (ObjectStore.class) {
+            return batched(kind, ObjectId.parse(sha1));
+        }
+    }
+
+    /** Returns the object of KIND named ID if it is in a batch not yet
+     *  packed, or else null. Must be called holding the lock on
+     *  ObjectStore. */
+    private static byte[] batched(int kind, ObjectId id) {
+        if (_batch == null) {
+            return null;
+        }
+        byte[] result = _batch._objects.get(kind).get(id);
+        for (int i = PACKING.size() - 1; result == null && i >= 0; i -= 1) {
+            result = PACKING.get(i)._objects.get(kind).get(id);
+        }
+        return result;
+    }
+
+    /** Returns the ids of all stored objects of KIND, in order. */
+    static TreeSet<String> list(int kind) {
+        TreeSet<String> result = new TreeSet<>(looseIds(kind));
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.count(); i += 1) {
+                if (pack.kind(i) == kind) {
+                    result.add(pack.id(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of the loose objects of KIND, skipping files that
+     *  are not named by a full id, such as unfinished temporaries. */
+    private static List<String> looseIds(int kind) {
+        ArrayList<String> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(dir(kind));
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == Utils.UID_LENGTH
+                        && name.matches("[0-9a-f]+")) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Packs every stored object into one new pack, then removes the
+     *  loose copies and the packs it replaced. With no loose objects
+     *  left, loose objects may be given Codec headers from now on. */
+    static void repack() {
+        repack(Collections.emptySet());
+    }
+
+    /** Like repack(), but leaves out of the new pack the commits named
+     *  in DROPPED. */
+    static void repack(Set<String> dropped) {
+        List<Pack> old = new ArrayList<>(packs());
+        ArrayList<Pack.Item> items = new ArrayList<>();
+        TreeSet<String> seen = new TreeSet<>();
+        for (int kind = BLOB; kind <= CHUNK; kind += 1) {
+            for (String id : looseIds(kind)) {
+                File file = Utils.join(dir(kind), id);
+                seen.add(kind + id);
+                items.add(new LooseItem(kind, id, file));
+            }
+            for (Pack pack : old) {
+                for (int i = 0; i < pack.count(); i += 1) {
+                    if (pack.kind(i) == kind && seen.add(kind + pack.id(i))
+                            && !(kind == COMMIT
+                                 && dropped.contains(pack.id(i)))) {
+                        items.add(new PackedItem(pack, i));
+                    }
+                }
+            }
+        }
+        boolean bare = false;
+        if (!items.isEmpty()) {
+            Main.PACKS.mkdir();
+            File written = Pack.write(Main.PACKS, items);
+            for (Pack.Item item : items) {
+                if (item instanceof LooseItem) {
+                    bare |= !((LooseItem) item)._file.delete();
+                }
+            }
+            for (Pack pack : old) {
+                // A gc with nothing new rewrites a pack under its own name.
+                if (!pack.file().equals(written)) {
+                    pack.delete();
+                }
+            }
+        }
+        if (!bare && !headed()) {
+            Journal.update(Main.FORMAT, "1\n");
+        }
+        forget();
+    }
+
+    /** A decoded object and the size of its stored form. */
+    private static class Decoded {
+
+        /** Kind of the object. */
+        private int _kind;
+
+        /** The decoded object. */
+        private Object _value;
+
+        /** Bytes in the stored form of _value. */
+        private long _size;
+
+        /** VALUE, an object of KIND decoded from SIZE stored bytes. */
+        Decoded(int kind, Object value, long size) {
+            _kind = kind;
+            _value = value;
+            _size = size;
+        }
+    }
+
+    /** Objects gathered to be packed together. */
+    private static class Batch {
+
+        /** The objects, by id, for each kind. */
+        private List<HashMap<ObjectId, byte[]>> _objects =
+            new ArrayList<>();
+
+        /** Bytes in _objects. */
+        private long _bytes;
+
+        /** An empty batch. */
+        Batch() {
+            for (int kind = BLOB; kind <= CHUNK; kind += 1) {
+                _objects.add(new HashMap<>());
+            }
+        }
+    }
+
+    /** An object of a batch being packed. */
+    private static class BatchItem extends Pack.Item {
+
+        /** The object. */
+        private byte[] _contents;
+
+        /** The object of KIND named ID, which is CONTENTS. */
+        BatchItem(int kind, ObjectId id, byte[] contents) {
+            super(kind, id.toString(), contents.length);
+            _contents = contents;
+        }
+
+        @Override
+        byte[] bytes() {
+            return _contents;
+        }
+
+        @Override
+        void copyTo(FileChannel out) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(_contents);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+    }
+
+    /** A loose object being packed. */
+    private static class LooseItem extends Pack.Item {
+
+        /** The file holding the object. */
+        private File _file;
+
+        /** The object of KIND named ID, held in FILE. */
+        LooseItem(int kind, String id, File file) {
+            super(kind, id, looseSize(file));
+            _file = file;
+        }
+
+        @Override
+        byte[] bytes() {
+            return readLoose(_file);
+        }
+
+        @Override
+        void copyTo(FileChannel out) throws IOException {
+            copyLoose(_file, out);
+        }
+    }
+
+    /** An already packed object being repacked. */
+    private static class PackedItem extends Pack.Item {
+
+        /** The pack holding the object. */
+        private Pack _pack;
+
+        /** Offset of the object in _pack. */
+        private long _offset;
+
+        /** Object I of PACK. */
+        PackedItem(Pack pack, int i) {
+            super(pack.kind(i), pack.id(i), pack.size(pack.offset(i)));
+            _pack = pack;
+            _offset = pack.offset(i);
+        }
+
+        @Override
+        byte[] bytes() {
+            return _pack.read(_offset);
+        }
+
+        @Override
+        void copyTo(FileChannel out) throws IOException {
+            _pack.copyTo(_offset, out);
+        }
+    }
+}
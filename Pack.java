@@ -0,0 +1,512 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A pack: many objects in one file, with an index sorted by id for
+ *  binary search. Each entry of the pack file is either a whole object,
+ *  as it is or compressed by Codec, or a delta against an earlier whole
+ *  object in the same pack.
+ *  <p>
+ *  Pack entry: kind byte, encoding byte, object size (long), stored
+ *  length (long), for a delta the offset of its base (long), and then
+ *  the stored bytes. Index: magic, version and count ints, then one
+ *  record per object of id, kind byte and entry offset (long), in
+ *  order of id and kind.
+ *  @author Cassandra Calciano
+ */
+class Pack {
+
+    /** Marks the start of a pack index. */
+    private static final int MAGIC = 0x4750494b;
+
+    /** Version of the pack format written by this class. Version 1
+     *  packs, which have no CODED entries, are read as well. */
+    private static final int VERSION = 2;
+
+    /** Bytes before the first index record. */
+    private static final int HEADER = 12;
+
+    /** Bytes in one index record. */
+    private static final int RECORD = CommitGraph.ID_BYTES + 1 + 8;
+
+    /** Encoding of an entry holding the whole object. */
+    private static final byte WHOLE = 0;
+
+    /** Encoding of an entry holding a delta against another entry. */
+    private static final byte DELTA = 1;
+
+    /** Encoding of an entry holding the whole object as encoded by
+     *  Codec. */
+    private static final byte CODED = 2;
+
+    /** Objects larger than this are never deltified, so that a delta
+     *  and its base always fit in memory. */
+    static final int DELTA_LIMIT = 8 << 20;
+
+    /** Number of earlier objects of similar size tried as delta bases. */
+    private static final int WINDOW = 10;
+
+    /** Size of the blocks of a base that deltas copy from. */
+    private static final int BLOCK = 16;
+
+    /** Largest literal run in one delta instruction. */
+    private static final int MAX_INSERT = 127;
+
+    /** The pack file. */
+    private File _packFile;
+
+    /** Open channel on the pack file, or null until first read. */
+    private FileChannel _channel;
+
+    /** The pack file mapped whole, or null until first read or if it is
+     *  too large for one mapping. */
+    private ByteBuffer _data;
+
+    /** The mapped index. */
+    private ByteBuffer _idx;
+
+    /** Number of objects in the pack. */
+    private int _count;
+
+    /** Opens the pack whose index is IDXFILE. */
+    Pack(File idxFile) {
+        String name = idxFile.getName();
+        _packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length())
+                        + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath(),
+                StandardOpenOption.READ)) {
+            _idx = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_idx.getInt(0) != MAGIC || _idx.getInt(4) < 1
+                || _idx.getInt(4) > VERSION) {
+            throw Utils.error("Unrecognized pack index %s.", name);
+        }
+        _count = _idx.getInt(8);
+    }
+
+    /** Returns the number of objects in this pack. */
+    int count() {
+        return _count;
+    }
+
+    /** Returns the id of object I, in index order. */
+    String id(int i) {
+        return ObjectId.of(_idx, HEADER + i * RECORD).toString();
+    }
+
+    /** Returns the kind of object I, in index order. */
+    int kind(int i) {
+        return _idx.get(HEADER + i * RECORD + CommitGraph.ID_BYTES);
+    }
+
+    /** Returns the offset of the entry of object I, in index order. */
+    long offset(int i) {
+        return _idx.getLong(HEADER + i * RECORD + CommitGraph.ID_BYTES + 1);
+    }
+
+    /** Returns the offset of the entry for the object of KIND named
+     *  ID, or -1 if this pack does not hold it. */
+    long find(int kind, ObjectId id) {
+        int lo = 0;
+        int hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = -id.compareTo(_idx, HEADER + mid * RECORD);
+            if (cmp == 0) {
+                cmp = kind(mid) - kind;
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return offset(mid);
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the size of the object whose entry is at OFFSET. */
+    long size(long offset) {
+        return header(offset).getLong(2);
+    }
+
+    /** Returns the object whose entry is at OFFSET. */
+    byte[] read(long offset) {
+        ByteBuffer head = header(offset);
+        int stored = (int) head.getLong(10);
+        if (head.get(1) == WHOLE) {
+            return readAt(offset + 18, stored);
+        } else if (head.get(1) == CODED) {
+            return Codec.decode(readAt(offset + 18, stored));
+        }
+        byte[] delta = readAt(offset + 26, stored);
+        return applyDelta(read(head.getLong(18)), delta,
+                (int) head.getLong(2));
+    }
+
+    /** Writes the object whose entry is at OFFSET to OUT. Whole objects
+     *  kept as they are are moved channel to channel, and coded ones
+     *  decoded from the mapped pack a block at a time, without either
+     *  passing through the heap. */
+    void copyTo(long offset, FileChannel out) throws IOException {
+        ByteBuffer head = header(offset);
+        ByteBuffer data = data();
+        if (head.get(1) == CODED && data != null) {
+            Codec.copy(data.slice((int) offset + 18,
+                    (int) head.getLong(10)), out);
+            return;
+        }
+        if (head.get(1) != WHOLE) {
+            ByteBuffer buf = ByteBuffer.wrap(read(offset));
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            return;
+        }
+        long stored = head.getLong(10);
+        FileChannel in = channel();
+        long pos = 0;
+        while (pos < stored) {
+            pos += in.transferTo(offset + 18 + pos, stored - pos, out);
+        }
+    }
+
+    /** Returns a channel reading the pack file, opening it once. */
+    private synchronized FileChannel channel() throws IOException {
+        if (_channel == null) {
+            _channel = FileChannel.open(_packFile.toPath(),
+                    StandardOpenOption.READ);
+        }
+        return _channel;
+    }
+
+    /** Returns the pack file mapped whole, mapping it once, or null if
+     *  it is too large to map in one piece. */
+    private synchronized ByteBuffer data() throws IOException {
+        FileChannel in = channel();
+        if (_data == null && in.size() <= Integer.MAX_VALUE) {
+            _data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        return _data;
+    }
+
+    /** Returns the fixed part of the entry at OFFSET. */
+    private ByteBuffer header(long offset) {
+        return ByteBuffer.wrap(readAt(offset, 26));
+    }
+
+    /** Returns up to LENGTH bytes of the pack file from OFFSET. */
+    private byte[] readAt(long offset, int length) {
+        try {
+            ByteBuffer data = data();
+            if (data != null) {
+                byte[] result = new byte[(int) Math.min(length,
+                        data.capacity() - offset)];
+                data.get((int) offset, result);
+                return result;
+            }
+            FileChannel in = channel();
+            ByteBuffer buf = ByteBuffer.allocate(
+                    (int) Math.min(length, in.size() - offset));
+            while (buf.hasRemaining()
+                    && in.read(buf, offset + buf.position()) >= 0) {
+                continue;
+            }
+            return buf.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the pack file. */
+    File file() {
+        return _packFile;
+    }
+
+    /** Deletes the files of this pack. */
+    void delete() {
+        try {
+            if (_channel != null) {
+                _channel.close();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+        _packFile.delete();
+        new File(_packFile.getParentFile(), _packFile.getName()
+                .replace(".pack", ".idx")).delete();
+    }
+
+    /** An object to be written to a pack. */
+    abstract static class Item {
+
+        /** Kind of the object, as in ObjectStore. */
+        private int _kind;
+
+        /** Id of the object. */
+        private String _id;
+
+        /** Size of the object in bytes. */
+        private long _size;
+
+        /** An item for the object of KIND named ID, SIZE bytes long. */
+        Item(int kind, String id, long size) {
+            _kind = kind;
+            _id = id;
+            _size = size;
+        }
+
+        /** Returns the whole object. */
+        abstract byte[] bytes();
+
+        /** Writes the whole object to OUT. */
+        abstract void copyTo(FileChannel out) throws IOException;
+    }
+
+    /** Writes ITEMS into a new pack in DIR, deltifying similar objects
+     *  of the same kind against each other and compressing the objects
+     *  stored whole. Chunks are never deltified, since their boundaries
+     *  already split off what files share, and objects over DELTA_LIMIT
+     *  are streamed in as they are. Index
+     *  entries are written last, so a pack is only seen once it is
+     *  complete. Returns the pack file, named for the ids it holds. */
+    static File write(File dir, List<Item> items) {
+        return write(dir, items, false);
+    }
+
+    /** Like write(DIR, ITEMS), but if QUICK, for objects that must be
+     *  packed as fast as they come, makes no deltas and compresses with
+     *  the fast codec, leaving the rest to the next gc. */
+    static File write(File dir, List<Item> items, boolean quick) {
+        int level = quick ? -1 : Codec.level();
+        ArrayList<Item> order = new ArrayList<>(items);
+        order.sort((a, b) -> a._kind != b._kind ? a._kind - b._kind
+                : Long.compare(a._size, b._size));
+        HashMap<Item, Long> offsets = new HashMap<>();
+        try {
+            Path tmp = Files.createTempFile(dir.toPath(), "pack", ".tmp");
+            try (FileChannel out = FileChannel.open(tmp,
+                    StandardOpenOption.WRITE)) {
+                ArrayList<Item> window = new ArrayList<>();
+                ArrayList<byte[]> windowBytes = new ArrayList<>();
+                for (Item item : order) {
+                    offsets.put(item, out.position());
+                    if (item._size > DELTA_LIMIT) {
+                        writeWhole(item, out);
+                        continue;
+                    }
+                    byte[] bytes = item.bytes();
+                    if (item._kind == ObjectStore.CHUNK || quick) {
+                        writeCoded(out, item, bytes, level);
+                        continue;
+                    }
+                    byte[] best = null;
+                    Item bestBase = null;
+                    for (int i = 0; i < window.size(); i += 1) {
+                        if (window.get(i)._kind != item._kind) {
+                            continue;
+                        }
+                        byte[] delta = makeDelta(windowBytes.get(i), bytes);
+                        if (delta.length < bytes.length / 2
+                                && (best == null
+                                    || delta.length < best.length)) {
+                            best = delta;
+                            bestBase = window.get(i);
+                        }
+                    }
+                    if (best == null) {
+                        writeCoded(out, item, bytes, level);
+                        window.add(item);
+                        windowBytes.add(bytes);
+                        if (window.size() > WINDOW) {
+                            window.remove(0);
+                            windowBytes.remove(0);
+                        }
+                    } else {
+                        writeEntry(out, item, DELTA, best,
+                                offsets.get(bestBase));
+                    }
+                }
+                out.force(true);
+            }
+            order.sort((a, b) -> {
+                // Lower-case numerals sort as the ids themselves do.
+                int cmp = a._id.compareTo(b._id);
+                return cmp != 0 ? cmp : a._kind - b._kind;
+            });
+            ByteBuffer idx = ByteBuffer.allocate(HEADER
+                    + order.size() * RECORD);
+            idx.putInt(MAGIC).putInt(VERSION).putInt(order.size());
+            StringBuilder ids = new StringBuilder();
+            for (Item item : order) {
+                idx.put(Utils.fromHex(item._id)).put((byte) item._kind)
+                        .putLong(offsets.get(item));
+                ids.append(item._id);
+            }
+            String name = "pack-" + Utils.sha1(ids.toString());
+            File packFile = Utils.join(dir, name + ".pack");
+            Files.move(tmp, packFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            Path idxTmp = Files.createTempFile(dir.toPath(), "idx", ".tmp");
+            try (FileChannel out = FileChannel.open(idxTmp,
+                    StandardOpenOption.WRITE)) {
+                out.write(idx.flip());
+                out.force(true);
+            }
+            Files.move(idxTmp, Utils.join(dir, name + ".idx").toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            Journal.syncDir(dir);
+            return packFile;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes ITEM whole to OUT, streaming it. */
+    private static void writeWhole(Item item, FileChannel out)
+        throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(18);
+        head.put((byte) item._kind).put(WHOLE).putLong(item._size)
+                .putLong(item._size).flip();
+        while (head.hasRemaining()) {
+            out.write(head);
+        }
+        item.copyTo(out);
+    }
+
+    /** Writes an entry for ITEM, whose object is BYTES, to OUT, as CODED
+     *  if Codec shrinks it at LEVEL and as WHOLE otherwise. */
+    private static void writeCoded(FileChannel out, Item item, byte[] bytes,
+                                   int level) throws IOException {
+        byte[] coded = Codec.encode(bytes, level);
+        if (coded[0] == Codec.STORED) {
+            writeEntry(out, item, WHOLE, bytes, -1);
+        } else {
+            writeEntry(out, item, CODED, coded, -1);
+        }
+    }
+
+    /** Writes an entry for ITEM to OUT holding DATA in ENCODING, with
+     *  base offset BASE for a delta. */
+    private static void writeEntry(FileChannel out, Item item, byte encoding,
+                                   byte[] data, long base)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(26 + data.length);
+        buf.put((byte) item._kind).put(encoding).putLong(item._size)
+                .putLong(data.length);
+        if (encoding == DELTA) {
+            buf.putLong(base);
+        }
+        buf.put(data).flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Returns the instructions that rebuild TARGET from BASE. Each
+     *  instruction is either a byte N below 128 followed by N literal
+     *  bytes, or -1 followed by the offset and length (ints) of a run
+     *  to copy from BASE. */
+    static byte[] makeDelta(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hashBlock(base, i), i);
+        }
+        ByteBuffer out = ByteBuffer.allocate(target.length + 64);
+        int literal = 0;
+        int i = 0;
+        while (i < target.length) {
+            Integer start = null;
+            if (i + BLOCK <= target.length) {
+                start = blocks.get(hashBlock(target, i));
+            }
+            int length = 0;
+            if (start != null) {
+                while (start + length < base.length
+                        && i + length < target.length
+                        && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+            }
+            if (length >= BLOCK) {
+                if (!flushLiteral(out, target, i - literal, literal)) {
+                    return target;
+                }
+                literal = 0;
+                if (out.remaining() < 9) {
+                    return target;
+                }
+                out.put((byte) -1).putInt(start).putInt(length);
+                i += length;
+            } else {
+                literal += 1;
+                i += 1;
+            }
+        }
+        if (!flushLiteral(out, target, i - literal, literal)) {
+            return target;
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /** Writes the LENGTH bytes of DATA from START to OUT as literal
+     *  instructions. Returns false if OUT has no room. */
+    private static boolean flushLiteral(ByteBuffer out, byte[] data,
+                                        int start, int length) {
+        while (length > 0) {
+            int n = Math.min(length, MAX_INSERT);
+            if (out.remaining() < n + 1) {
+                return false;
+            }
+            out.put((byte) n).put(data, start, n);
+            start += n;
+            length -= n;
+        }
+        return true;
+    }
+
+    /** Returns the object of SIZE bytes rebuilt from BASE and DELTA. */
+    static byte[] applyDelta(byte[] base, byte[] delta, int size) {
+        byte[] result = new byte[size];
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        int pos = 0;
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            if (op == -1) {
+                int start = in.getInt();
+                int length = in.getInt();
+                System.arraycopy(base, start, result, pos, length);
+                pos += length;
+            } else {
+                in.get(result, pos, op);
+                pos += op;
+            }
+        }
+        return result;
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA from START. */
+    private static int hashBlock(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Restores the working directory for checkout and reset. The paths to
+ *  change come from a tree diff. Deletions are done first, in order,
+ *  and then the blob copies run on a bounded pool of workers, each of
+ *  which streams its blob from the object store into its file. The
+ *  number of workers is taken from the gitlet.workers system property
+ *  or the GITLET_WORKERS environment variable, and defaults to the
+ *  number of processors.
+ *  @author Cassandra Calciano
+ */
+class Restore {
+
+    /** Fewest files worth starting a pool for. */
+    private static final int PARALLEL_MIN = 16;
+
+    /** Returns the number of workers to restore files with. */
+    static int workers() {
+        String setting = System.getProperty("gitlet.workers",
+                System.getenv("GITLET_WORKERS"));
+        if (setting != null) {
+            try {
+                return Math.max(1, Integer.parseInt(setting.trim()));
+            } catch (NumberFormatException excp) {
+                return Runtime.getRuntime().availableProcessors();
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Deletes the files named in REMOVED and writes each blob in
+     *  TOWRITE to its path, skipping files that INDEX shows already hold
+     *  that blob. */
+    static void run(List<String> removed, Map<String, String> toWrite,
+                    Index index) {
+        File top = Main.CURRENTDIRECTORY.getAbsoluteFile();
+        for (String path : removed) {
+            File file = Utils.join(top, path);
+            file.delete();
+            for (File dir = file.getParentFile(); !dir.equals(top)
+                     && dir.delete(); dir = dir.getParentFile()) {
+                continue;
+            }
+        }
+        ArrayList<Runnable> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> file : toWrite.entrySet()) {
+            String path = file.getKey();
+            String sha1 = file.getValue();
+            Index.Entry entry = index.get(path);
+            tasks.add(() -> {
+                File dest = Utils.join(Main.CURRENTDIRECTORY, path);
+                if (entry == null || !sha1.equals(entry.sha())
+                        || !index.unchanged(entry, dest)) {
+                    Blob.restore(sha1, dest);
+                }
+            });
+        }
+        int workers = workers();
+        if (workers == 1 || tasks.size() < PARALLEL_MIN) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(workers, tasks.size()));
+        try {
+            ArrayList<Future<?>> pending = new ArrayList<>();
+            for (Runnable task : tasks) {
+                pending.add(pool.submit(task));
+            }
+            for (Future<?> done : pending) {
+                done.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/** Sparse checkout: the part of the working directory that checkout,
+ *  reset, status and add deal with, as listed in .gitlet/sparse. Each
+ *  line of that file names a file or directory relative to the top of
+ *  the working directory, a directory standing for everything under it;
+ *  blank lines and lines starting with # are ignored. Without the file,
+ *  every path is included.
+ *  <p>
+ *  Excluded files stay tracked. The index follows them across checkouts
+ *  and commits keep them as the parent had them, but their working files
+ *  are never read, hashed or written, and excluded directories are not
+ *  listed.
+ *  @author Cassandra Calciano
+ */
+class Sparse {
+
+    /** The checkout of every path. */
+    static final Sparse ALL = new Sparse(new TreeSet<>());
+
+    /** Included files and directories, in order, or empty if every path
+     *  is included. */
+    private TreeSet<String> _patterns;
+
+    /** A sparse checkout of PATTERNS, which are normalized. */
+    private Sparse(TreeSet<String> patterns) {
+        _patterns = patterns;
+    }
+
+    /** Returns the sparse checkout of the repository. */
+    static Sparse read() {
+        Sparse kept = (Sparse) Daemon.kept(Main.SPARSE);
+        if (kept != null) {
+            return kept;
+        }
+        Sparse result = ALL;
+        if (Main.SPARSE.isFile()) {
+            result = of(Utils.readContentsAsString(Main.SPARSE)
+                    .split("\n"));
+        }
+        Daemon.keep(result, Main.SPARSE);
+        return result;
+    }
+
+    /** Returns the sparse checkout of PATTERNS, ignoring blank ones and
+     *  comments. A pattern naming the top directory includes every
+     *  path; one outside the working directory is an error. */
+    static Sparse of(String... patterns) {
+        TreeSet<String> normal = new TreeSet<>();
+        for (String pattern : patterns) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            String path = Paths.get(pattern).normalize().toString()
+                    .replace(File.separatorChar, '/');
+            while (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            if (path.isEmpty() || path.equals(".")) {
+                return ALL;
+            }
+            if (path.equals("..") || path.startsWith("../")) {
+                throw Utils.error("%s is outside the working directory.",
+                        pattern);
+            }
+            normal.add(path);
+        }
+        return normal.isEmpty() ? ALL : new Sparse(normal);
+    }
+
+    /** Returns true if every path is included. */
+    boolean all() {
+        return _patterns.isEmpty();
+    }
+
+    /** Returns the included files and directories, in order. */
+    Collection<String> patterns() {
+        return _patterns;
+    }
+
+    /** Returns true if the file or directory at PATH is included, by
+     *  being named itself or lying under a directory that is. */
+    boolean includes(String path) {
+        if (all()) {
+            return true;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', slash + 1)) {
+            if (_patterns.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return _patterns.contains(path);
+    }
+
+    /** Returns true if anything under the directory DIR, which is empty
+     *  for the top directory, may be included, so that DIR is worth
+     *  listing. */
+    boolean enters(String dir) {
+        if (dir.isEmpty() || includes(dir)) {
+            return true;
+        }
+        String under = _patterns.ceiling(dir + "/");
+        return under != null && under.startsWith(dir + "/");
+    }
+
+    /** Writes this sparse checkout to SPARSE when the command commits,
+     *  or removes SPARSE if every path is included. */
+    void write() {
+        if (all()) {
+            if (Main.SPARSE.isFile()) {
+                Journal.delete(Main.SPARSE,
+                        Utils.readContentsAsString(Main.SPARSE));
+            }
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (String pattern : _patterns) {
+            text.append(pattern).append('\n');
+        }
+        Journal.update(Main.SPARSE, text.toString());
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Timings of the phases of a command. Tracing is turned on by a leading
+ *  --trace argument, which reports to the standard error, or by the
+ *  GITLET_TRACE environment variable: 1 reports to the standard error,
+ *  and anything else but 0 is a file to append reports to. A report is
+ *  one line of JSON: the command, its total time, and for each phase
+ *  the number of calls, the time spent and the bytes handled, with the
+ *  hits and misses of the object cache.
+ *  <p>
+ *  The code being traced brackets a phase as
+ *      long start = Trace.start();
+ *      ...
+ *      Trace.end(Trace.READ, start, bytes);
+ *  which, with tracing off, costs a test of one static field. Phases may
+ *  run on several threads at once, so their times can add up to more
+ *  than the total.
+ *  @author Cassandra Calciano
+ */
+class Trace {
+
+    /** Phase: reading whole files. */
+    static final int READ = 0;
+
+    /** Phase: writing whole files. */
+    static final int WRITE = 1;
+
+    /** Phase: SHA-1 hashing. */
+    static final int SHA1 = 2;
+
+    /** Phase: decoding objects, including Java deserialization. */
+    static final int DECODE = 3;
+
+    /** Phase: listing directories. */
+    static final int LIST = 4;
+
+    /** Phase: storing objects. Blobs are hashed as they are copied, so
+     *  their hashing counts toward this phase as well as SHA1. */
+    static final int STORE = 5;
+
+    /** Phase: committing refs and the index through the journal. */
+    static final int JOURNAL = 6;
+
+    /** Names of the phases, as reported. */
+    private static final String[] NAMES = {
+        "read", "write", "sha1", "decode", "list", "store", "journal",
+    };
+
+    /** True while a command is traced. */
+    private static boolean _on;
+
+    /** Where reports go: a file name, or null for the standard error. */
+    private static String _to;
+
+    /** Calls, nanoseconds and bytes of each phase. */
+    private static final AtomicLongArray CALLS =
+        new AtomicLongArray(NAMES.length),
+        NANOS = new AtomicLongArray(NAMES.length),
+        BYTES = new AtomicLongArray(NAMES.length);
+
+    /** When the traced command started, and the object cache hits and
+     *  misses then. */
+    private static long _started, _hits, _misses;
+
+    /** Returns a time to pass to end, or 0 if tracing is off. */
+    static long start() {
+        return _on ? System.nanoTime() : 0;
+    }
+
+    /** Counts a call of PHASE that handled BYTES bytes and began at
+     *  START, as returned by start. */
+    static void end(int phase, long start, long bytes) {
+        if (_on) {
+            CALLS.incrementAndGet(phase);
+            NANOS.addAndGet(phase, System.nanoTime() - start);
+            BYTES.addAndGet(phase, bytes);
+        }
+    }
+
+    /** Starts tracing the command ARGS if a leading --trace or
+     *  GITLET_TRACE asks for it.
+     * @return ARGS without --trace */
+    static String[] begin(String[] args) {
+        String setting = System.getenv("GITLET_TRACE");
+        _on = false;
+        _to = null;
+        if (args.length > 0 && args[0].equals("--trace")) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+            _on = true;
+        } else if (setting != null && !setting.isEmpty()
+                && !setting.equals("0")) {
+            _on = true;
+            _to = setting.equals("1") ? null : setting;
+        }
+        if (_on) {
+            for (int i = 0; i < NAMES.length; i += 1) {
+                CALLS.set(i, 0);
+                NANOS.set(i, 0);
+                BYTES.set(i, 0);
+            }
+            _hits = ObjectStore.hits();
+            _misses = ObjectStore.misses();
+            _started = System.nanoTime();
+        }
+        return args;
+    }
+
+    /** Returns true if this command is traced. */
+    static boolean on() {
+        return _on;
+    }
+
+    /** Reports the phases of the traced command ARGS, if any, and stops
+     *  tracing. */
+    static void report(String[] args) {
+        if (!_on) {
+            return;
+        }
+        _on = false;
+        StringBuilder json = new StringBuilder("{\"command\": ");
+        quote(args.length == 0 ? "" : args[0], json);
+        json.append(", \"total_us\": ")
+            .append((System.nanoTime() - _started) / 1000)
+            .append(", \"phases\": {");
+        for (int i = 0; i < NAMES.length; i += 1) {
+            json.append(i == 0 ? "" : ", ").append('"').append(NAMES[i])
+                .append("\": {\"calls\": ").append(CALLS.get(i))
+                .append(", \"us\": ").append(NANOS.get(i) / 1000)
+                .append(", \"bytes\": ").append(BYTES.get(i)).append('}');
+        }
+        json.append("}, \"cache\": {\"hits\": ")
+            .append(ObjectStore.hits() - _hits)
+            .append(", \"misses\": ").append(ObjectStore.misses() - _misses)
+            .append("}}\n");
+        if (_to == null) {
+            System.err.print(json);
+            System.err.flush();
+            return;
+        }
+        try (Writer out = new FileWriter(_to, true)) {
+            out.write(json.toString());
+        } catch (IOException excp) {
+            System.err.print(json);
+        }
+    }
+
+    /** Appends S to JSON as a JSON string. */
+    private static void quote(String s, StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,223 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Tree object: the contents of one directory of a commit. A tree
+ *  names the blobs of the files directly inside it and the trees of
+ *  its subdirectories, and is stored under the SHA-1 of its text, so
+ *  a directory that did not change is shared by every commit that
+ *  holds it.
+ *  @author Cassandra Calciano
+ */
+class Tree {
+
+    /** Blob versions of the files in this directory, by name. */
+    private TreeMap<String, String> _blobs = new TreeMap<>();
+
+    /** Trees of the subdirectories of this directory, by name. */
+    private TreeMap<String, String> _trees = new TreeMap<>();
+
+    /** Reads the tree named SHA1 from the object store. The tree may be
+     *  shared, so it must be copied before it is changed.
+     * @return the tree */
+    static Tree load(String sha1) {
+        return ObjectStore.load(ObjectStore.TREE, sha1, Tree::decode);
+    }
+
+    /** Returns the tree whose stored form is BYTES. */
+    private static Tree decode(byte[] bytes) {
+        Tree tree = new Tree();
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(" ", 3);
+            if (parts[0].equals("tree")) {
+                tree._trees.put(parts[2], parts[1]);
+            } else {
+                tree._blobs.put(parts[2], parts[1]);
+            }
+        }
+        return tree;
+    }
+
+    /** Returns a tree with the same entries as this one. */
+    private Tree copy() {
+        Tree result = new Tree();
+        result._blobs.putAll(_blobs);
+        result._trees.putAll(_trees);
+        return result;
+    }
+
+    /** Stores this tree unless an equal tree is stored. The tree is
+     *  cached as the stored one, so it must not be changed after.
+     * @return the SHA-1 of the tree */
+    String save() {
+        StringBuilder text = new StringBuilder();
+        for (String name : names()) {
+            if (_trees.containsKey(name)) {
+                text.append("tree ").append(_trees.get(name));
+            } else {
+                text.append("blob ").append(_blobs.get(name));
+            }
+            text.append(' ').append(name).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        String sha1 = Utils.sha1(bytes);
+        ObjectStore.write(ObjectStore.TREE, sha1, bytes);
+        ObjectStore.remember(ObjectStore.TREE, sha1, this, bytes.length);
+        return sha1;
+    }
+
+    /** Returns the names of all entries of this tree, in order. */
+    private TreeSet<String> names() {
+        TreeSet<String> names = new TreeSet<>(_blobs.keySet());
+        names.addAll(_trees.keySet());
+        return names;
+    }
+
+    /** Returns the blob of the file at PATH in the tree named TREESHA,
+     *  or null if there is none. Only the trees of the directories
+     *  along PATH are read. */
+    static String blobAt(String treeSha, String path) {
+        String[] parts = path.split("/");
+        String sha1 = treeSha;
+        for (int i = 0; i < parts.length - 1 && sha1 != null; i += 1) {
+            sha1 = load(sha1)._trees.get(parts[i]);
+        }
+        if (sha1 == null) {
+            return null;
+        }
+        return load(sha1)._blobs.get(parts[parts.length - 1]);
+    }
+
+    /** Returns the SHA-1 of the tree made by applying CHANGES to the
+     *  tree named TREESHA. CHANGES maps paths to their new blobs, or to
+     *  null for files or whole directories to remove. Only the trees
+     *  along changed paths are rewritten; every other subtree is kept by
+     *  reference. */
+    static String update(String treeSha, SortedMap<String, String> changes) {
+        String result = apply(treeSha, changes);
+        if (result == null) {
+            return new Tree().save();
+        }
+        return result;
+    }
+
+    /** Does the work of update, returning null when the resulting
+     *  tree is empty so that empty directories are dropped. */
+    private static String apply(String treeSha,
+                                SortedMap<String, String> changes) {
+        Tree tree = treeSha == null ? new Tree() : load(treeSha).copy();
+        TreeMap<String, TreeMap<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                nested.computeIfAbsent(path.substring(0, slash),
+                        k -> new TreeMap<>()).put(path.substring(slash + 1),
+                                change.getValue());
+            } else if (change.getValue() == null) {
+                tree._blobs.remove(path);
+                tree._trees.remove(path);
+            } else {
+                tree._blobs.put(path, change.getValue());
+                tree._trees.remove(path);
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir
+                : nested.entrySet()) {
+            String name = dir.getKey();
+            String sub = apply(tree._trees.get(name), dir.getValue());
+            if (sub == null) {
+                tree._trees.remove(name);
+            } else {
+                tree._trees.put(name, sub);
+                tree._blobs.remove(name);
+            }
+        }
+        if (tree._blobs.isEmpty() && tree._trees.isEmpty()) {
+            return null;
+        }
+        return tree.save();
+    }
+
+    /** Records in OUT how to get from the tree named FROM to the tree
+     *  named TO, naming paths relative to PREFIX. Either tree may be
+     *  null for an empty directory. Subtrees with the same SHA-1 on both
+     *  sides are skipped without being read. */
+    static void diff(String from, String to, String prefix, Changes out) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Tree a = from == null ? new Tree() : load(from);
+        Tree b = to == null ? new Tree() : load(to);
+        for (Map.Entry<String, String> blob : a._blobs.entrySet()) {
+            String other = b._blobs.get(blob.getKey());
+            if (other == null) {
+                out._removed.add(prefix + blob.getKey());
+            } else if (!other.equals(blob.getValue())) {
+                out._modified.put(prefix + blob.getKey(), other);
+            }
+        }
+        for (Map.Entry<String, String> blob : b._blobs.entrySet()) {
+            if (!a._blobs.containsKey(blob.getKey())) {
+                out._added.put(prefix + blob.getKey(), blob.getValue());
+            }
+        }
+        TreeSet<String> dirs = new TreeSet<>(a._trees.keySet());
+        dirs.addAll(b._trees.keySet());
+        for (String dir : dirs) {
+            diff(a._trees.get(dir), b._trees.get(dir),
+                    prefix + dir + "/", out);
+        }
+    }
+
+    /** Adds every file of the tree named TREESHA to OUT, keyed by its
+     *  path relative to PREFIX. */
+    static void flatten(String treeSha, String prefix,
+                        Map<String, String> out) {
+        Tree tree = load(treeSha);
+        for (Map.Entry<String, String> blob : tree._blobs.entrySet()) {
+            out.put(prefix + blob.getKey(), blob.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree._trees.entrySet()) {
+            flatten(dir.getValue(), prefix + dir.getKey() + "/", out);
+        }
+    }
+
+    /** The differences between two trees, as found by diff. */
+    static class Changes {
+
+        /** Files only in the new tree, with their blobs. */
+        private TreeMap<String, String> _added = new TreeMap<>();
+
+        /** Files in both trees whose blobs differ, with the new blobs. */
+        private TreeMap<String, String> _modified = new TreeMap<>();
+
+        /** Files only in the old tree. */
+        private ArrayList<String> _removed = new ArrayList<>();
+
+        /** Returns the files only in the new tree. */
+        TreeMap<String, String> added() {
+            return _added;
+        }
+
+        /** Returns the files whose blobs differ. */
+        TreeMap<String, String> modified() {
+            return _modified;
+        }
+
+        /** Returns the files only in the old tree. */
+        ArrayList<String> removed() {
+            return _removed;
+        }
+    }
+}
@@ -4,6 +4,26 @@ import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /** The suite of all JUnit tests for the gitlet package.
  *  @author
  */
@@ -20,6 +40,432 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
-}
+    /** Number of threads in the stress tests. */
+    private static final int THREADS = 4;
+
+    /** Files each writer thread adds and commits. */
+    private static final int ROUNDS = 5;
+
+    /** Has THREADS threads each add and commit ROUNDS files of their own
+     *  at once, each command in its own process, while another thread
+     *  keeps reading the log, and checks that every file ends up
+     *  committed and that no command failed. */
+    @Test
+    public void concurrentCommitTest() throws Exception {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        try {
+            gitlet(dir, "init");
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+            List<Future<String>> done = new ArrayList<>();
+            for (int t = 0; t < THREADS; t += 1) {
+                int thread = t;
+                done.add(pool.submit(() -> {
+                    StringBuilder out = new StringBuilder();
+                    for (int i = 0; i < ROUNDS; i += 1) {
+                        String name = "f" + thread + "-" + i + ".txt";
+                        Files.writeString(new File(dir, name).toPath(),
+                                name + "\n");
+                        out.append(gitlet(dir, "add", name));
+                        out.append(gitlet(dir, "commit", "add " + name));
+                    }
+                    return out.toString();
+                }));
+            }
+            Future<String> reader = pool.submit(() -> {
+                StringBuilder out = new StringBuilder();
+                for (int i = 0; i < ROUNDS; i += 1) {
+                    out.append(gitlet(dir, "log", "-n", "1"));
+                }
+                return out.toString();
+            });
+            for (Future<String> writer : done) {
+                assertFalse(writer.get().contains("Exception"));
+            }
+            assertFalse(reader.get().contains("Exception"));
+            pool.shutdown();
+
+            String status = gitlet(dir, "status");
+            for (int t = 0; t < THREADS; t += 1) {
+                for (int i = 0; i < ROUNDS; i += 1) {
+                    assertFalse(status.contains("f" + t + "-" + i));
+                }
+            }
+            String log = gitlet(dir, "log");
+            int commits = log.split("===").length - 1;
+            assertTrue(commits > 1 && commits <= THREADS * ROUNDS + 1);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Has THREADS processes create the same branch at once, and checks
+     *  that exactly one of them did. */
+    @Test
+    public void concurrentBranchTest() throws Exception {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        try {
+            gitlet(dir, "init");
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            List<Callable<String>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS; t += 1) {
+                tasks.add(() -> gitlet(dir, "branch", "same"));
+            }
+            int created = 0;
+            for (Future<String> result : pool.invokeAll(tasks)) {
+                String out = result.get();
+                if (out.isEmpty()) {
+                    created += 1;
+                } else {
+                    assertTrue(out.contains("already exists")
+                            || out.contains("changed by another command"));
+                }
+            }
+            pool.shutdown();
+            assertEquals(1, created);
+            assertTrue(new File(dir, ".gitlet/branches/same").isFile());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Runs gc twice with nothing new between, which writes the same
+     *  pack again, and checks that a file can still be checked out. */
+    @Test
+    public void gcTwiceTest() throws Exception {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        try {
+            File file = new File(dir, "a.txt");
+            gitlet(dir, "init");
+            Files.writeString(file.toPath(), "one\n");
+            gitlet(dir, "add", "a.txt");
+            gitlet(dir, "commit", "one");
+            assertEquals("", gitlet(dir, "gc"));
+            assertEquals("", gitlet(dir, "gc"));
+            Files.writeString(file.toPath(), "two\n");
+            assertEquals("", gitlet(dir, "checkout", "--", "a.txt"));
+            assertEquals("one\n", Files.readString(file.toPath()));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Bytes in a FAST block. */
+    private static final int BLOCK = 1 << 16;
+
+    /** Levels that pick each encoding: FAST, STORED and DEFLATE. */
+    private static final int[] LEVELS = { -1, 0, 6 };
+
+    /** Sizes of the writes made to the streaming encoder, in turn. */
+    private static final int[] PIECES = { 1, 7, 300, 1, 4096, BLOCK + 3 };
 
+    /** Checks that empty input survives every encoding. */
+    @Test
+    public void codecEmptyTest() throws IOException {
+        roundTrip(new byte[0]);
+    }
+
+    /** Checks random input, which FAST cannot shrink, both alone and
+     *  as raw blocks between compressible ones. */
+    @Test
+    public void codecIncompressibleTest() throws IOException {
+        Random random = new Random(21);
+        byte[] noise = new byte[3 * BLOCK + 17];
+        random.nextBytes(noise);
+        assertEquals(Codec.STORED, Codec.encode(noise, -1)[0]);
+        roundTrip(noise);
+        byte[] mixed = new byte[3 * BLOCK];
+        random.nextBytes(mixed);
+        Arrays.fill(mixed, 0, BLOCK, (byte) 'a');
+        Arrays.fill(mixed, 2 * BLOCK, 3 * BLOCK, (byte) 'b');
+        assertEquals(Codec.FAST, Codec.encode(mixed, -1)[0]);
+        roundTrip(mixed);
+    }
+
+    /** Checks inputs of exactly one block and just either side of it. */
+    @Test
+    public void codecBlockEdgeTest() throws IOException {
+        for (int length : new int[] { BLOCK - 1, BLOCK, BLOCK + 1 }) {
+            byte[] text = new byte[length];
+            for (int i = 0; i < length; i += 1) {
+                text[i] = (byte) ("gitlet " + i / 64).charAt(i % 7);
+            }
+            roundTrip(text);
+        }
+    }
+
+    /** Checks matches and literal runs long enough to need extension
+     *  bytes after their token's 15, including runs of a whole block. */
+    @Test
+    public void codecLongMatchTest() throws IOException {
+        byte[] zeros = new byte[5 * BLOCK / 2];
+        byte[] coded = Codec.encode(zeros, -1);
+        assertEquals(Codec.FAST, coded[0]);
+        assertTrue(coded.length < 1000);
+        roundTrip(zeros);
+        Random random = new Random(18);
+        byte[] runs = new byte[2 * BLOCK];
+        random.nextBytes(runs);
+        for (int at = 0; at + 1000 < runs.length; at += 3000) {
+            Arrays.fill(runs, at, at + 15 + 255 + 300, (byte) at);
+        }
+        roundTrip(runs);
+        byte[] repeat = new byte[BLOCK + 5000];
+        random.nextBytes(repeat);
+        System.arraycopy(repeat, 0, repeat, 4000, 4000);
+        System.arraycopy(repeat, 0, repeat, BLOCK - 2000, 7000);
+        roundTrip(repeat);
+    }
+
+    /** Checks that RAW comes back from encode, from the streaming
+     *  encoder, and through decode, the streaming decoder and
+     *  copy(ByteBuffer, ...), at every level. */
+    private static void roundTrip(byte[] raw) throws IOException {
+        for (int level : LEVELS) {
+            byte[] whole = Codec.encode(raw, level);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out = Codec.encoder(bytes, raw.length, level)) {
+                int k = 0;
+                for (int n = 0; k < raw.length; n += 1) {
+                    int piece = Math.min(PIECES[n % PIECES.length],
+                            raw.length - k);
+                    if (piece == 1) {
+                        out.write(raw[k]);
+                    } else {
+                        out.write(raw, k, piece);
+                    }
+                    k += piece;
+                }
+            }
+            for (byte[] stored : List.of(whole, bytes.toByteArray())) {
+                assertArrayEquals(raw, Codec.decode(stored));
+                try (InputStream in = Codec.decoder(
+                        new ByteArrayInputStream(stored))) {
+                    assertArrayEquals(raw, in.readAllBytes());
+                }
+                ByteArrayOutputStream copied = new ByteArrayOutputStream();
+                Codec.copy(ByteBuffer.wrap(stored),
+                        Channels.newChannel(copied));
+                assertArrayEquals(raw, copied.toByteArray());
+            }
+        }
+    }
+
+    /** Checks that identical versions give no diff at all. */
+    @Test
+    public void diffIdenticalTest() throws IOException {
+        assertEquals("", diff("a\nb\nc\n", "a\nb\nc\n"));
+        assertEquals("", diff("a\nb", "a\nb"));
+        assertEquals("", diff("", ""));
+    }
 
+    /** Checks that a last line without a newline differs from the same
+     *  line with one, and is marked as such. */
+    @Test
+    public void diffNoNewlineTest() throws IOException {
+        String out = diff("a\nb", "a\nb\n");
+        assertEquals("--- a/f\n+++ b/f\n@@ -1,2 +1,2 @@\n a\n-b\n"
+                + "\\ No newline at end of file\n+b\n", out);
+        checkPatch("a\nb", "a\nb\n");
+        checkPatch("x\ny\n", "x\nz");
+        checkPatch("x", "y");
+    }
+
+    /** Checks files that are empty or missing on one side. */
+    @Test
+    public void diffOneSideEmptyTest() throws IOException {
+        assertEquals("--- /dev/null\n+++ b/f\n@@ -0,0 +1,2 @@\n"
+                + "+a\n+b\n", diff(null, "a\nb\n"));
+        assertEquals("--- a/f\n+++ /dev/null\n@@ -1 +0,0 @@\n-a\n",
+                diff("a\n", null));
+        checkPatch("", "a\nb\nc");
+        checkPatch("a\nb\nc\n", "");
+    }
+
+    /** Checks DIFF_CASES random pairs of versions: every diff must turn
+     *  the old version into the new one with as few changed lines as
+     *  a longest common subsequence allows. */
+    @Test
+    public void diffRandomTest() throws IOException {
+        Random random = new Random(400);
+        for (int k = 0; k < DIFF_CASES; k += 1) {
+            String a = randomText(random);
+            String b = random.nextBoolean() ? randomText(random)
+                    : mutate(a, random);
+            int edits = checkPatch(a, b);
+            List<String> x = lines(a);
+            List<String> y = lines(b);
+            assertEquals(x.size() + y.size() - 2 * lcs(x, y), edits);
+        }
+    }
+
+    /** Checks two long versions with little in common, which need more
+     *  than Diff.COST_MIN edits, so that Diff settles for the furthest
+     *  point it reached: the diff must still be correct. */
+    @Test
+    public void diffCostLimitTest() throws IOException {
+        Random random = new Random(4096);
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 20000; i += 1) {
+            a.append(random.nextInt(50)).append('\n');
+            b.append(random.nextInt(50)).append('\n');
+        }
+        int edits = checkPatch(a.toString(), b.toString());
+        assertTrue(edits > 2 * 4096 && edits <= 40000);
+    }
+
+    /** Number of random cases in diffRandomTest. */
+    private static final int DIFF_CASES = 400;
+
+    /** Returns the diff of the file f from FROM to TO, either of which
+     *  may be null for a missing file. */
+    private static String diff(String from, String to) throws IOException {
+        StringWriter out = new StringWriter();
+        Diff.write("f", stream(from), stream(to), out);
+        return out.toString();
+    }
+
+    /** Returns a stream of the UTF-8 bytes of TEXT, or null if TEXT is
+     *  null. */
+    private static InputStream stream(String text) {
+        return text == null ? null
+                : new ByteArrayInputStream(
+                        text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Checks that the diff from A to B, applied to A, gives B.
+     * @return the number of lines the diff deletes or inserts */
+    private static int checkPatch(String a, String b) throws IOException {
+        List<String> old = lines(a);
+        List<String> result = new ArrayList<>();
+        String[] out = diff(a, b).split("\n", -1);
+        int at = 0;
+        int edits = 0;
+        for (int i = 2; i < out.length - 1; i += 1) {
+            String line = out[i];
+            String text = line.substring(1);
+            if (i + 1 < out.length && out[i + 1].startsWith("\\")) {
+                i += 1;
+            } else {
+                text += "\n";
+            }
+            if (line.startsWith("@@")) {
+                int start = Integer.parseInt(
+                        line.split(" ")[1].substring(1).split(",")[0]);
+                int length = line.split(" ")[1].contains(",")
+                        ? Integer.parseInt(line.split(" ")[1].split(",")[1])
+                        : 1;
+                int until = length == 0 ? start : start - 1;
+                while (at < until) {
+                    result.add(old.get(at));
+                    at += 1;
+                }
+            } else if (line.startsWith(" ") || line.startsWith("-")) {
+                assertEquals(old.get(at), text);
+                if (line.startsWith(" ")) {
+                    result.add(text);
+                } else {
+                    edits += 1;
+                }
+                at += 1;
+            } else {
+                assertTrue(line.startsWith("+"));
+                result.add(text);
+                edits += 1;
+            }
+        }
+        result.addAll(old.subList(at, old.size()));
+        assertEquals(b, String.join("", result));
+        return edits;
+    }
+
+    /** Returns the lines of TEXT, each with its newline. */
+    private static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == '\n') {
+                result.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** Returns the length of a longest common subsequence of X and Y. */
+    private static int lcs(List<String> x, List<String> y) {
+        int[][] best = new int[x.size() + 1][y.size() + 1];
+        for (int i = x.size() - 1; i >= 0; i -= 1) {
+            for (int j = y.size() - 1; j >= 0; j -= 1) {
+                best[i][j] = x.get(i).equals(y.get(j))
+                        ? best[i + 1][j + 1] + 1
+                        : Math.max(best[i + 1][j], best[i][j + 1]);
+            }
+        }
+        return best[0][0];
+    }
+
+    /** Returns up to 60 lines drawn from a few, using RANDOM, sometimes
+     *  without a last newline. */
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int n = random.nextInt(60); n > 0; n -= 1) {
+            text.append((char) ('a' + random.nextInt(6))).append('\n');
+        }
+        if (text.length() > 0 && random.nextInt(4) == 0) {
+            text.setLength(text.length() - 1);
+        }
+        return text.toString();
+    }
+
+    /** Returns TEXT with a few lines deleted, inserted or changed, using
+     *  RANDOM. */
+    private static String mutate(String text, Random random) {
+        List<String> lines = new ArrayList<>(lines(text));
+        for (int n = random.nextInt(5); n >= 0; n -= 1) {
+            int at = lines.isEmpty() ? 0 : random.nextInt(lines.size());
+            int what = lines.isEmpty() ? 0 : random.nextInt(3);
+            String line = (char) ('a' + random.nextInt(8)) + "\n";
+            if (what == 0) {
+                lines.add(at, line);
+            } else if (what == 1 && at < lines.size() - 1) {
+                lines.remove(at);
+            } else if (at < lines.size() - 1) {
+                lines.set(at, line);
+            }
+        }
+        return String.join("", lines);
+    }
+
+    /** Runs gitlet with ARGS in DIR, in a process of its own, and
+     *  returns everything it printed. */
+    private static String gitlet(File dir, String... args)
+        throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+                new File(System.getProperty("java.home"), "bin/java")
+                        .getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+        String out = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        process.waitFor();
+        return out;
+    }
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}